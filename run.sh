@@ -1,3 +1,3 @@
 cd target/
-java src.Rig
+java src.Rig "$@"
 cd ..
@@ -0,0 +1,222 @@
+/*
+ * JDK Flight Recorder events of the quick fit engine
+ * Only created while MemoryMgmt.setFlightRecorder(true), a disabled allocator pays one field check per operation
+ * and never loads these classes; once on, the recording settings (enabled, threshold, period) apply as usual
+ * Durations span the operation, including any coalescing or growing it triggered
+ * The periodic statistics take the allocator's monitor, like every concurrent caller has to (see AllocServer)
+ *
+ * Record with e.g. java -XX:StartFlightRecording=filename=alloc.jfr src.Headless --jfr true ...
+ * and read back with jfr print --categories "Quick Fit" alloc.jfr
+ */
+package src;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.TreeMap;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class AllocEvents {
+
+    @Name("quickfit.Malloc")
+    @Label("Malloc")
+    @Category("Quick Fit")
+    @StackTrace(false)
+    public static class Malloc extends Event {
+        @Label("Requested Size")
+        @DataAmount
+        public int size;
+
+        @Label("Block Size")
+        @DataAmount
+        public int blockSize;
+
+        @Label("Path")
+        @Description("Where the block came from (bin, tail, misc, sbrk, large), failed if malloc returned NULL")
+        public String path;
+
+        @Label("Pointer")
+        public long pointer;
+    }
+
+    @Name("quickfit.Free")
+    @Label("Free")
+    @Category("Quick Fit")
+    @StackTrace(false)
+    public static class Free extends Event {
+        @Label("Pointer")
+        public long pointer;
+
+        @Label("Block Size")
+        @Description("0 if the pointer was rejected (invalid or double free)")
+        @DataAmount
+        public int blockSize;
+    }
+
+    @Name("quickfit.CoalescePass")
+    @Label("Coalesce Pass")
+    @Category("Quick Fit")
+    @StackTrace(false)
+    public static class Coalesce extends Event {
+        @Label("Blocks Merged")
+        @Description("Free blocks absorbed into their left neighbour")
+        public long merged;
+
+        @Label("Parallel")
+        public boolean parallel;
+    }
+
+    @Name("quickfit.Sbrk")
+    @Label("Sbrk")
+    @Category("Quick Fit")
+    @StackTrace(false)
+    public static class Sbrk extends Event {
+        @Label("Requested Size")
+        @DataAmount
+        public int requested;
+
+        @Label("Extension Size")
+        @DataAmount
+        public int extension;
+    }
+
+    @Name("quickfit.MergeAndDistribute")
+    @Label("Merge And Distribute")
+    @Category("Quick Fit")
+    @StackTrace(false)
+    public static class Merge extends Event {
+        @Label("Block")
+        @Description("Address of the merged block")
+        public long block;
+
+        @Label("Left Length")
+        @DataAmount
+        public int left;
+
+        @Label("Right Length")
+        @DataAmount
+        public int right;
+
+        @Label("Distributed To")
+        @Description("List the merged block went to: bin, misc or tail")
+        public String list;
+    }
+
+    @Name("quickfit.HeapStatistics")
+    @Label("Heap Statistics")
+    @Category("Quick Fit")
+    @StackTrace(false)
+    @Period("1 s")
+    public static class HeapStatistics extends Event {
+        @Label("Allocator")
+        public String allocator;
+
+        @Label("Bin Blocks")
+        public int binBlocks;
+
+        @Label("Misc Blocks")
+        public int miscBlocks;
+
+        @Label("Misc Free")
+        @DataAmount
+        public long miscBytes;
+
+        @Label("Tail")
+        @DataAmount
+        public int tail;
+
+        @Label("Committed")
+        @DataAmount
+        public long committed;
+
+        @Label("Footprint")
+        @DataAmount
+        public long footprint;
+    }
+
+    // One per non-empty bin, emitted with every heap statistics event
+    @Name("quickfit.BinOccupancy")
+    @Label("Bin Occupancy")
+    @Category("Quick Fit")
+    @StackTrace(false)
+    public static class BinOccupancy extends Event {
+        @Label("Allocator")
+        public String allocator;
+
+        @Label("Bin Size")
+        @DataAmount
+        public int size;
+
+        @Label("Blocks")
+        public int blocks;
+    }
+
+    /*
+     * Periodic hook of @memoryMgmt
+     * Holds it weakly, so an allocator dropped without turning the recorder off is still collected (the hook then removes itself)
+     */
+    static Runnable periodic(MemoryMgmt memoryMgmt) {
+
+        WeakReference<MemoryMgmt> reference = new WeakReference<>(memoryMgmt);
+
+        Runnable hook = new Runnable() {
+            public void run() {
+                MemoryMgmt target = reference.get();
+                if (target == null) FlightRecorder.removePeriodicEvent(this);
+                else target.recordStatistics();
+            }
+        };
+
+        FlightRecorder.addPeriodicEvent(HeapStatistics.class, hook);
+
+        return hook;
+    }
+
+    static void remove(Runnable hook) {
+        FlightRecorder.removePeriodicEvent(hook);
+    }
+
+    /*
+     * Records @run in-process and counts the events emitted, per event name
+     * The periodic events are taken once, when the recording starts (its period is beginChunk)
+     */
+    public static TreeMap<String, Integer> record(Runnable run) throws IOException {
+
+        TreeMap<String, Integer> counts = new TreeMap<>();
+
+        Path file = Files.createTempFile("quickfit", ".jfr");
+
+        try (Recording recording = new Recording()) {
+            for (Class<? extends Event> type : List.of(Malloc.class, Free.class, Coalesce.class, Sbrk.class, Merge.class, BinOccupancy.class)) {
+                recording.enable(type).withoutThreshold();
+            }
+            recording.enable(HeapStatistics.class).with("period", "beginChunk");
+            recording.start();
+            run.run();
+            recording.stop();
+            recording.dump(file);
+
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                counts.merge(event.getEventType().getName(), 1, Integer::sum);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        return counts;
+    }
+}
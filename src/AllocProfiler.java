@@ -0,0 +1,182 @@
+/*
+ * Sampling allocation profiler
+ * About one malloc per @interval allocated bytes is sampled: the gaps between samples are exponentially
+ * distributed, so every allocated byte has the same chance of triggering one
+ * A sample captures the caller stack with StackWalker and stays tracked until its block is freed
+ * It stands for size / (1 - e^(-size/interval)) bytes, which keeps the per call site totals unbiased
+ * Unsampled mallocs only cost a subtraction, frees a lookup in the table of live samples
+ * Sources: tcmalloc heap profiler (Google perftools), sampling by allocated bytes
+ */
+package src;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+public class AllocProfiler {
+
+    // Where malloc found the block, refills carved from the tail count as tail
+    public enum Path { BIN, TAIL, MISC, SBRK, LARGE }
+
+    private static final StackWalker WALKER = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+    private final long interval;            // Mean bytes between two samples
+
+    private final int depth;                // Caller frames that make up a call site
+
+    private final Random random;
+
+    private long countdown;                 // Bytes left until the next sample
+
+    // Call site -> totals
+    private HashMap<String, Site> sites = new HashMap<>();
+
+    // Sampled block still allocated -> its sample
+    private HashMap<Long, Sample> live = new HashMap<>();
+
+    public AllocProfiler(long interval, int depth, long seed) {
+        if (interval <= 0) throw new IllegalArgumentException("Sampling interval must be positive.");
+        this.interval = interval;
+        this.depth = depth;
+        this.random = new Random(seed);
+        countdown = nextInterval();
+    }
+
+    public AllocProfiler(long interval) {
+        this(interval, 1, System.nanoTime());
+    }
+
+    private long nextInterval() {
+        return 1 + (long) (-Math.log(1 - random.nextDouble()) * interval);
+    }
+
+    // Per malloc, @size bytes were handed out at @ptr via @path
+    public void allocated(long ptr, int size, Path path) {
+
+        countdown -= size;
+        if (countdown > 0) return;
+        countdown = nextInterval();
+
+        Sample sample = new Sample(callSite(), path, size / (1 - Math.exp(-(double) size / interval)));
+
+        Site site = sites.computeIfAbsent(sample.site, Site::new);
+        site.allocated[path.ordinal()] += sample.weight;
+        site.live[path.ordinal()] += sample.weight;
+        site.allocatedBlocks++;
+        site.liveBlocks++;
+
+        live.put(ptr, sample);
+    }
+
+    public void freed(long ptr) {
+        if (live.isEmpty()) return;
+        Sample sample = live.remove(ptr);
+        if (sample == null) return;
+        Site site = sites.get(sample.site);
+        site.live[sample.path.ordinal()] -= sample.weight;
+        site.liveBlocks--;
+    }
+
+    // Compaction slid the block at @from down to @to
+    public void moved(long from, long to) {
+        Sample sample = live.remove(from);
+        if (sample != null) live.put(to, sample);
+    }
+
+    // The heap was dropped, nothing sampled is live anymore
+    public void heapReset() {
+        for (Sample sample : live.values()) {
+            Site site = sites.get(sample.site);
+            site.live[sample.path.ordinal()] -= sample.weight;
+            site.liveBlocks--;
+        }
+        live.clear();
+    }
+
+    // First @depth frames outside the allocator (engines, their inner classes such as regions, and this class)
+    private String callSite() {
+        return WALKER.walk(frames -> frames
+            .filter(frame -> !internal(frame.getDeclaringClass()))
+            .limit(depth)
+            .map(StackWalker.StackFrame::toStackTraceElement)
+            .map(StackTraceElement::toString)
+            .collect(Collectors.joining(" < ")));
+    }
+
+    private static boolean internal(Class<?> type) {
+        for (Class<?> current = type; current != null; current = current.getEnclosingClass()) {
+            if (current == AllocProfiler.class || Allocator.class.isAssignableFrom(current)) return true;
+        }
+        return false;
+    }
+
+    /*
+     * Profile per call site, heaviest first
+     * @live - bytes still allocated, otherwise everything allocated since profiling started
+     * Bytes are estimates, block counts are sample counts
+     */
+    public String dump(boolean live) {
+
+        ArrayList<Site> ordered = new ArrayList<>(sites.values());
+        ordered.sort((a, b) -> Double.compare(b.total(live), a.total(live)));
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(live ? "Live heap" : "Cumulative allocation").append(" profile, 1 sample per ").append(interval).append(" bytes\n");
+        builder.append(String.format("%10s %8s %8s %8s %8s %8s %8s  %s%n", "bytes", "samples", "bin", "tail", "misc", "sbrk", "large", "call site"));
+
+        for (Site site : ordered) {
+            double[] bytes = live ? site.live : site.allocated;
+            long samples = live ? site.liveBlocks : site.allocatedBlocks;
+            if (samples == 0) continue;
+            builder.append(String.format("%10.0f %8d", site.total(live), samples));
+            for (double pathBytes : bytes) builder.append(String.format(" %8.0f", pathBytes));
+            builder.append("  ").append(site.name).append("\n");
+        }
+
+        return builder.toString();
+    }
+
+    // Estimated bytes of @path still allocated from @site (all sites if null)
+    public double liveBytes(String site, Path path) {
+        double bytes = 0;
+        for (Site current : sites.values()) {
+            if (site == null || current.name.equals(site)) bytes += current.live[path.ordinal()];
+        }
+        return bytes;
+    }
+
+    public int getLiveSamples() {
+        return live.size();
+    }
+
+    private static class Sample {
+        final String site;
+        final Path path;
+        final double weight;
+
+        Sample(String site, Path path, double weight) {
+            this.site = site;
+            this.path = path;
+            this.weight = weight;
+        }
+    }
+
+    private static class Site {
+        final String name;
+        final double[] allocated = new double[Path.values().length];
+        final double[] live = new double[Path.values().length];
+        long allocatedBlocks;
+        long liveBlocks;
+
+        Site(String name) {
+            this.name = name;
+        }
+
+        double total(boolean live) {
+            double total = 0;
+            for (double bytes : live ? this.live : allocated) total += bytes;
+            return total;
+        }
+    }
+}
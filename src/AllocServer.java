@@ -0,0 +1,240 @@
+/*
+ * Local allocation service
+ * Wraps a single MemoryMgmt behind a compact binary protocol over TCP (loopback) or a Unix domain socket
+ *
+ * Requests (big-endian, pointers are 8 bytes), pipelined, answered in order:
+ * MALLOC  1 | size                          -> ptr (-1 on failure)
+ * FREE    2 | ptr                           -> 0, or -1 for an invalid pointer
+ * READ    3 | ptr | offset | length         -> length, then the bytes (-1 and no bytes on failure)
+ * WRITE   4 | ptr | offset | length | bytes -> 0, or -1 on failure
+ *
+ * Every complete request in the receive buffer is executed as one batch under a single lock,
+ * and the whole batch is answered with one write; replies outgrowing the send buffer split the batch,
+ * the socket is only read again once no complete request is left
+ *
+ * With a heap limit, a MALLOC at the limit waits up to @LIMIT_TIMEOUT ms for other connections to free,
+ * the batch lock is released meanwhile
+ *
+ * Usage: java src.AllocServer [port | unix:path] [heap size] [word size] [heap limit]
+ */
+package src;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class AllocServer {
+
+    public static final byte MALLOC = 1;
+    public static final byte FREE   = 2;
+    public static final byte READ   = 3;
+    public static final byte WRITE  = 4;
+
+    public static final int BUFFER = 1 << 16;
+    public static final int HEADER = 1 + 8 + 4 + 4;        // READ/WRITE opcode, ptr, offset, length
+    public static final int MAX_PAYLOAD = BUFFER - HEADER;  // Largest READ/WRITE that fits a frame
+
+    public static final long LIMIT_TIMEOUT = 1000;
+
+    private final int NULL = -1;
+
+    private MemoryMgmt memoryMgmt;
+
+    private ServerSocketChannel server;
+
+    /*
+     * One task per connection, blocking on its own channel
+     * A virtual-thread-per-task executor drops in here on JDK 21, this tree targets JDK 17
+     */
+    private ExecutorService connections = Executors.newCachedThreadPool();
+
+    public AllocServer(long memorySize, int wordSize) {
+        memoryMgmt = new MemoryMgmt(memorySize, wordSize);
+        memoryMgmt.setVerbose(false);
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        String address = args.length > 0 ? args[0] : "7070";
+        long memorySize = args.length > 1 ? Long.parseLong(args[1]) : 1 << 24;
+        int wordSize = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        AllocServer allocServer = new AllocServer(memorySize, wordSize);
+        if (args.length > 3) allocServer.memoryMgmt.setHeapLimit(Long.parseLong(args[3]), LIMIT_TIMEOUT);
+        allocServer.bind(address);
+
+        System.out.println("Allocation server listening on " + address + " (" + memorySize + " byte heap, " + 8*wordSize + "-bit)");
+
+        allocServer.serve();
+    }
+
+    // "unix:/path" for a Unix domain socket, otherwise a loopback TCP port
+    public static SocketAddress parseAddress(String address) {
+        if (address.startsWith("unix:")) return UnixDomainSocketAddress.of(address.substring(5));
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+    }
+
+    public void bind(String address) throws IOException {
+        SocketAddress socketAddress = parseAddress(address);
+        if (socketAddress instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) socketAddress).getPath());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+        server.bind(socketAddress);
+    }
+
+    public void serve() throws IOException {
+        while (server.isOpen()) {
+            SocketChannel client = server.accept();
+            connections.submit(() -> handle(client));
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+        if (server.getLocalAddress() instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) server.getLocalAddress()).getPath());
+        }
+        connections.shutdownNow();
+    }
+
+    private void handle(SocketChannel client) {
+
+        ByteBuffer in = ByteBuffer.allocate(BUFFER);
+        ByteBuffer out = ByteBuffer.allocate(BUFFER);
+
+        try (client) {
+            while (client.read(in) != -1) {
+
+                in.flip();
+
+                // Batches of every complete request received so far, answered whenever the replies fill the send buffer
+                while (complete(in)) {
+                    synchronized (memoryMgmt) {
+                        while (complete(in) && out.remaining() >= replySize(in)) {
+                            execute(in, out);
+                        }
+                    }
+                    flush(client, out);
+                }
+
+                in.compact();
+            }
+        } catch (IOException | IllegalStateException e) {
+            // Client went away or broke the protocol, drop the connection
+        }
+    }
+
+    private void flush(SocketChannel client, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) client.write(out);
+        out.clear();
+    }
+
+    // True if a whole request sits at the buffer position
+    private boolean complete(ByteBuffer in) {
+
+        if (in.remaining() < 1) return false;
+
+        int needed;
+        switch (in.get(in.position())) {
+            case MALLOC:
+                needed = 1 + 4;
+                break;
+            case FREE:
+                needed = 1 + 8;
+                break;
+            case READ:
+                needed = HEADER;
+                break;
+            case WRITE:
+                if (in.remaining() < HEADER) return false;
+                int length = in.getInt(in.position()+HEADER-4);
+                if (length < 0 || length > MAX_PAYLOAD) throw new IllegalStateException("Payload of " + length + " bytes does not fit a frame");
+                needed = HEADER + length;
+                break;
+            default:
+                throw new IllegalStateException("Unknown opcode " + in.get(in.position()));
+        }
+
+        return in.remaining() >= needed;
+    }
+
+    // Bytes the answer to the request at the buffer position takes, READ carries its payload
+    private int replySize(ByteBuffer in) {
+        if (in.get(in.position()) == MALLOC) return 8;
+        if (in.get(in.position()) != READ) return 4;
+        return 4 + Math.max(0, Math.min(in.getInt(in.position()+HEADER-4), MAX_PAYLOAD));
+    }
+
+    private void execute(ByteBuffer in, ByteBuffer out) {
+
+        byte opcode = in.get();
+
+        switch (opcode) {
+            case MALLOC: {
+                int size = in.getInt();
+                long ptr;
+                try {
+                    ptr = memoryMgmt.malloc(size);
+                } catch (Error e) {
+                    ptr = NULL;
+                }
+                out.putLong(ptr);
+                break;
+            }
+            case FREE: {
+                long ptr = in.getLong();
+                if (memoryMgmt.isAllocated(ptr)) {
+                    memoryMgmt.free(ptr);
+                    out.putInt(0);
+                } else {
+                    out.putInt(NULL);
+                }
+                break;
+            }
+            case READ: {
+                long ptr = in.getLong();
+                int offset = in.getInt();
+                int length = in.getInt();
+                if (length < 0 || length > MAX_PAYLOAD) {
+                    out.putInt(NULL);
+                    break;
+                }
+                try {
+                    out.putInt(length);
+                    memoryMgmt.read(ptr, offset, out.slice(out.position(), length));
+                    out.position(out.position() + length);
+                } catch (Error | RuntimeException e) {
+                    out.putInt(out.position()-4, NULL);
+                }
+                break;
+            }
+            case WRITE: {
+                long ptr = in.getLong();
+                int offset = in.getInt();
+                int length = in.getInt();
+                ByteBuffer bytes = in.slice(in.position(), length);
+                in.position(in.position() + length);
+                try {
+                    memoryMgmt.write(ptr, offset, bytes);
+                    out.putInt(0);
+                } catch (Error | RuntimeException e) {
+                    out.putInt(NULL);
+                }
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Allocator engine
+ * Common surface of the quick fit (MemoryMgmt), buddy (BuddyAllocator), TLSF (TlsfAllocator)
+ * and side table (SideTableAllocator) engines
+ * Tests, Freestyle and Visualize only go through this interface
+ */
+package src;
+
+public interface Allocator {
+
+    // Engine name, as accepted by create()
+    public String name();
+
+    // Pointer to at least @size bytes, -1 if @size is not positive
+    public long malloc(int size);
+
+    public void free(long ptr);
+
+    // Grows the heap by a power-of-two extension of at least @size bytes
+    public MemoryMgmt.Byte[] sbrk(int size);
+
+    // True only for pointers returned by malloc that have not been freed yet
+    public boolean isAllocated(long ptr);
+
+    public int getWord();
+
+    // Consistent view of every segment, in the MemoryMgmt cell model
+    public HeapView snapshot();
+
+    public void setGUI(Visualize visualize);
+
+    public void setVerbose(boolean verbose);
+
+    // Running tests
+    public void print();
+
+    public default String integerToHex(long ptr) {
+
+        String hex = Long.toHexString(ptr);
+
+        int zerosToAdd = 2*getWord()-hex.length();
+
+        for (int i = 0; i < zerosToAdd; i++) {
+            hex = "0" + hex;
+        }
+
+        return "0x" + hex;
+    }
+
+    /*
+     * Engines by name
+     * quick - quick fit with lazy coalescing
+     * buddy - binary buddy system
+     * tlsf  - two-level segregated fit on the quick fit heap
+     * side  - quick fit with block metadata in a side table
+     */
+    public static Allocator create(String engine, long memorySize, int wordSize) {
+        switch (engine) {
+            case "quick":
+                return new MemoryMgmt(memorySize, wordSize);
+            case "buddy":
+                return new BuddyAllocator(memorySize, wordSize);
+            case "tlsf":
+                return new TlsfAllocator(memorySize, wordSize);
+            case "side":
+                return new SideTableAllocator(memorySize, wordSize);
+            default:
+                throw new IllegalArgumentException("Unknown allocator engine '" + engine + "'.");
+        }
+    }
+}
@@ -0,0 +1,438 @@
+/*
+ * Binary buddy system
+ * Blocks are @MIN_BLOCK << order bytes, a block and its buddy differ in a single address bit
+ * Allocation splits a larger block down to the requested order, free merges with the buddy while it is free (O(log n))
+ * Sources: Knowlton, Kenneth C. A Fast Storage Allocator, Communications of the ACM 8(10), 1965
+ */
+package src;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import src.MemoryMgmt.Byte;
+import src.MemoryMgmt.FlaggedByte;
+import src.MemoryMgmt.LengthType;
+import src.MemoryMgmt.MemoryError;
+import src.MemoryMgmt.PointerByte;
+
+public class BuddyAllocator implements Allocator {
+
+    Visualize visualize;                    // GUI
+
+    private boolean verbose = true;         // Tracing every operation to stdout
+
+    private final int WORD;
+    private final int NULL = -1;
+
+    /*
+     * Block layout:
+     * [LEN tag][unused word] payload
+     * Free blocks keep their list pointers (prev, next) at the start of the payload
+     * The buddy's tag tells whether it is free and whole, so there are no footers
+     */
+    private final int MIN_BLOCK;            // Tag DWORD + list pointers
+
+    private final int MAX_ORDER = 24;       // Largest block is @MIN_BLOCK << @MAX_ORDER
+
+    private final long ADDRESS_LIMIT;
+
+    private long memorySize;
+
+    // Segments by start address, the main heap at 0 and sbrk extensions after it
+    private TreeMap<Long, Byte[]> segments;
+
+    /*
+     * Roots of the buddy trees by start address -> size
+     * The main heap is cut into power-of-two roots, every extension is a single root
+     * Buddies are computed relative to their root, so blocks never merge across roots
+     */
+    private TreeMap<Long, Integer> roots;
+
+    private long extensionTop;              // Next unused address after the last extension
+
+    // Free list heads per order, doubly linked through the list pointers
+    private long[] freeLists;
+
+    public BuddyAllocator(long memorySize, int wordSize) {
+
+        if (wordSize != 4 && wordSize != 8) throw new IllegalArgumentException("Word size must be 4 or 8 bytes.");
+
+        WORD = wordSize;
+        MIN_BLOCK = 4*WORD;
+        ADDRESS_LIMIT = WORD == 8 ? 1L << 48 : 1L << 32;
+
+        if (memorySize < MIN_BLOCK || memorySize > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Main heap of " + memorySize + " bytes is not supported with " + WORD + " byte words.");
+        }
+
+        this.memorySize = memorySize;
+        visualize = null;
+        initializeMemory();
+    }
+
+    public String name() {
+        return "buddy";
+    }
+
+    /*
+     * 1. Smallest non-empty free list of a large enough order
+     * 2. Split down to the requested order, upper halves go to their free lists
+     * 3. [Nothing free] Request for more memory (sbrk) -> go to 1.
+     */
+    public long malloc(int size) {
+
+        log("Requesting " + size + " bytes of memory ... ");
+
+        if (size <= 0) {
+            log("Exception triggered in thread. Exiting.\n\n");
+            return NULL;
+        }
+
+        int order = orderFor((long) size + 2*WORD);
+
+        if (order > MAX_ORDER) throw new MemoryError("Memory request failed.");
+
+        long block = takeBlock(order);
+
+        if (block == NULL) {
+
+            log("\nMemory limit exceeded, requesting further memory blocks ... ");
+
+            sbrk(blockSize(order));
+
+            block = takeBlock(order);
+
+            if (block == NULL) throw new MemoryError("Memory request failed.");
+        }
+
+        setByte(block, new FlaggedByte('U', blockSize(order), LengthType.LEN));
+        setByte(block+2*WORD, null);
+        setByte(block+3*WORD, null);
+
+        log("memory allocated.\n");
+        log("Pointer: " + integerToHex(block+2*WORD) + "\n\n");
+
+        refreshGUI(block, blockSize(order), 'U');
+
+        return block+2*WORD;
+    }
+
+    // Merges with the buddy as long as it is free and of the same size
+    public void free(long ptr) {
+
+        if (ptr <= WORD) {
+            log("Invalid pointer ... Exception triggered in thread. Exiting.\n\n");
+            return;
+        }
+
+        log("Freeing pointer " + integerToHex(ptr) + " ... ");
+
+        // Invalid pointers and double frees
+        if (!isAllocated(ptr)) {
+            log("Exception triggered in thread. Exiting.\n\n");
+            return;
+        }
+
+        long block = ptr-2*WORD;
+        int size = ((FlaggedByte) getByte(block)).length;
+
+        Map.Entry<Long, Integer> root = roots.floorEntry(block);
+
+        while (size < root.getValue()) {
+
+            long buddy = root.getKey() + ((block-root.getKey()) ^ size);
+
+            Byte tag = getByte(buddy);
+            if (!(tag instanceof FlaggedByte) || ((FlaggedByte) tag).flag != 'F' || ((FlaggedByte) tag).length != size) break;
+
+            removeFromList(buddy, orderFor(size));
+
+            // The upper half's tag goes away
+            long upper = Math.max(block, buddy);
+            setByte(upper, null);
+            setByte(upper+2*WORD, null);
+            setByte(upper+3*WORD, null);
+
+            block = Math.min(block, buddy);
+            size *= 2;
+        }
+
+        addToList(block, orderFor(size));
+
+        log("memory freed.\n\n");
+
+        refreshGUI(block, size, 'F');
+    }
+
+    /*
+     * One new root of at least @size bytes (a power of two), appended after the last extension
+     * Its single free block goes to the free list of its order
+     */
+    public Byte[] sbrk(int size) {
+
+        int order = orderFor(size);
+
+        if (order > MAX_ORDER) throw new MemoryError("Memory request failed.");
+
+        int length = blockSize(order);
+
+        if (extensionTop + length > ADDRESS_LIMIT) throw new MemoryError("Heap address space exhausted.");
+
+        Byte[] extension = new Byte[length];
+
+        long base = extensionTop;
+        extensionTop += length;
+
+        segments.put(base, extension);
+        roots.put(base, length);
+
+        addToList(base, order);
+
+        if (visualize != null) visualize.segmentMapped(base, length);
+        refreshGUI(base, length, 'F');
+
+        return extension;
+    }
+
+    // The LEN tag is only ever found at the start of a block
+    public boolean isAllocated(long ptr) {
+        if (ptr < 2*WORD) return false;
+        Byte tag = getByte(ptr-2*WORD);
+        return tag instanceof FlaggedByte && ((FlaggedByte) tag).flag == 'U';
+    }
+
+    // Payload bytes of the allocated block at @ptr
+    public int usableSize(long ptr) {
+        if (!isAllocated(ptr)) {
+            throw new MemoryError("Segmentation fault: " + integerToHex(ptr) + " is not an allocated block.");
+        }
+        return ((FlaggedByte) getByte(ptr-2*WORD)).length - 2*WORD;
+    }
+
+    // Removes the first block of the smallest free list at or above @order, split down to @order
+    private long takeBlock(int order) {
+
+        int current = order;
+        while (current <= MAX_ORDER && freeLists[current] == NULL) current++;
+
+        if (current > MAX_ORDER) return NULL;
+
+        long block = freeLists[current];
+        removeFromList(block, current);
+
+        while (current > order) {
+            current--;
+            long upper = block + blockSize(current);
+            addToList(upper, current);
+            refreshGUI(upper, blockSize(current), 'F');
+        }
+
+        return block;
+    }
+
+    private void addToList(long block, int order) {
+
+        setByte(block, new FlaggedByte('F', blockSize(order), LengthType.LEN));
+        setByte(block+2*WORD, new PointerByte(NULL));
+        setByte(block+3*WORD, new PointerByte(freeLists[order]));
+
+        if (freeLists[order] != NULL) setByte(freeLists[order]+2*WORD, new PointerByte(block));
+
+        freeLists[order] = block;
+    }
+
+    // O(1), the block knows its neighbours in the list
+    private void removeFromList(long block, int order) {
+
+        long prev = ((PointerByte) getByte(block+2*WORD)).pointer;
+        long next = ((PointerByte) getByte(block+3*WORD)).pointer;
+
+        if (prev == NULL) freeLists[order] = next;
+        else setByte(prev+3*WORD, new PointerByte(next));
+
+        if (next != NULL) setByte(next+2*WORD, new PointerByte(prev));
+
+        setByte(block+2*WORD, null);
+        setByte(block+3*WORD, null);
+    }
+
+    private int blockSize(int order) {
+        return MIN_BLOCK << order;
+    }
+
+    // Smallest order whose blocks hold @size bytes
+    private int orderFor(long size) {
+        int order = 0;
+        while (order <= MAX_ORDER && blockSize(order) < size) order++;
+        return order;
+    }
+
+    // Free blocks per order
+    public int[] getFreeBlocks() {
+        int[] counts = new int[MAX_ORDER+1];
+        for (int order = 0; order <= MAX_ORDER; order++) {
+            for (long block = freeLists[order]; block != NULL; block = ((PointerByte) getByte(block+3*WORD)).pointer) counts[order]++;
+        }
+        return counts;
+    }
+
+    /*
+     * Helper methods
+     */
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    private void log(String message) {
+        if (verbose) System.out.print(message);
+    }
+
+    public void setGUI(Visualize visualize) {
+        this.visualize = visualize;
+    }
+
+    public void refreshGUI() {
+        if (visualize == null) return;
+        visualize.update();
+    }
+
+    public void refreshGUI(long block, int length, char flag) {
+        if (visualize == null) return;
+        visualize.block(block, length, flag);
+    }
+
+    public void initializeMemory() {
+
+        segments = new TreeMap<>();
+        roots = new TreeMap<>();
+
+        freeLists = new long[MAX_ORDER+1];
+        Arrays.fill(freeLists, NULL);
+
+        segments.put(0L, new Byte[(int) memorySize]);
+
+        // Largest power-of-two roots first, a remainder below @MIN_BLOCK stays unused
+        long base = 0;
+        while (memorySize - base >= MIN_BLOCK) {
+            int order = orderFor(memorySize - base);
+            if (order > MAX_ORDER || blockSize(order) > memorySize - base) order--;
+            roots.put(base, blockSize(order));
+            addToList(base, order);
+            base += blockSize(order);
+        }
+
+        extensionTop = memorySize;
+    }
+
+    // Methods to hide away pointer complexity
+    public void setByte(long pointer, Byte byteToSet) {
+        Map.Entry<Long, Byte[]> segment = segments.floorEntry(pointer);
+        if (segment == null || pointer-segment.getKey() >= segment.getValue().length) return;
+        segment.getValue()[(int) (pointer-segment.getKey())] = byteToSet;
+    }
+
+    public Byte getByte(long pointer) {
+        Map.Entry<Long, Byte[]> segment = segments.floorEntry(pointer);
+        if (segment == null || pointer-segment.getKey() >= segment.getValue().length) return null;
+        return segment.getValue()[(int) (pointer-segment.getKey())];
+    }
+
+    /*
+     * Cells are replaced, never mutated in place,
+     * so copying the segment arrays is enough for a consistent view (O(heap size))
+     */
+    public HeapView snapshot() {
+
+        TreeMap<Long, Byte[]> copies = new TreeMap<>();
+        for (Map.Entry<Long, Byte[]> segment : segments.entrySet()) copies.put(segment.getKey(), segment.getValue().clone());
+
+        return new HeapView() {
+
+            public Byte getByte(long pointer) {
+                Map.Entry<Long, Byte[]> segment = copies.floorEntry(pointer);
+                if (segment == null || pointer-segment.getKey() >= segment.getValue().length) return null;
+                return segment.getValue()[(int) (pointer-segment.getKey())];
+            }
+
+            public long getHeapSize() {
+                return memorySize;
+            }
+
+            public int[] getExtensionLengths() {
+                return copies.tailMap(memorySize).values().stream().mapToInt(segment -> segment.length).toArray();
+            }
+
+            public TreeMap<Long, Integer> getLargeObjects() {
+                return new TreeMap<>();
+            }
+
+            public void close() {
+                copies.clear();
+            }
+        };
+    }
+
+    public int getWord() {
+        return WORD;
+    }
+
+    // Running tests
+    public void print() {
+        test1();
+        test2();
+        test3();
+        test4();
+    }
+
+    // Tests
+
+    public void testHeader(int number, boolean reset, String description) {
+        if (reset) {
+            initializeMemory();
+            refreshGUI();
+        }
+        log("===================================\n\n");
+        log("Running test number " + number + " ...\n\n");
+        log("Description: " + description + "\n\n");
+        log("Free blocks per order: " + Arrays.toString(Arrays.copyOf(getFreeBlocks(), orderFor(memorySize)+1)) + "\n\n");
+    }
+
+    public void test1() {
+        testHeader(1, true, "Splitting, a 28 byte request splits the heap down to a 64 byte block.");
+        long ptr1 = malloc(28);
+        log("usableSize(ptr1): " + usableSize(ptr1) + ", free blocks per order: " + Arrays.toString(Arrays.copyOf(getFreeBlocks(), orderFor(memorySize)+1)) + "\n\n");
+        free(ptr1);
+    }
+
+    public void test2() {
+        testHeader(2, true, "Buddy coalescing, freeing every block merges the buddies back up to the whole heap.");
+        long ptr1 = malloc(100);
+        long ptr2 = malloc(100);
+        long ptr3 = malloc(500);
+        free(ptr2);
+        free(ptr1);
+        log("Free blocks per order: " + Arrays.toString(Arrays.copyOf(getFreeBlocks(), orderFor(memorySize)+1)) + "\n\n");
+        free(ptr3);
+        log("Free blocks per order: " + Arrays.toString(Arrays.copyOf(getFreeBlocks(), orderFor(memorySize)+1)) + "\n\n");
+    }
+
+    public void test3() {
+        testHeader(3, true, "Heap exhausted, sbrk maps a power-of-two extension as a new buddy root.");
+        long ptr1 = malloc(5000);
+        long ptr2 = malloc(3000);
+        long ptr3 = malloc(3000);
+        free(ptr2);
+        free(ptr3);
+        free(ptr1);
+    }
+
+    public void test4() {
+        testHeader(4, true, "Invalid pointers and double frees.");
+        long ptr1 = malloc(40);
+        free(ptr1+8);
+        free(ptr1);
+        free(ptr1);
+    }
+}
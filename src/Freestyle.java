@@ -7,29 +7,38 @@ import java.util.LinkedList;
 
 public class Freestyle implements Problem {
     
-    MemoryMgmt memoryMgmt;
+    Allocator memoryMgmt;
     Visualize visualize;
 
     LinkedList<PointerVariable> ptrVariables;
 
     int variableCount = 0;
 
+    String engine;
+
+    public Freestyle() {
+        this("quick");
+    }
+
+    public Freestyle(String engine) {
+        this.engine = engine;
+    }
+
     public String name() {
         return "Freestyle";
     }
 
     public void init() {
         
-        memoryMgmt = new MemoryMgmt(8192);
+        memoryMgmt = Allocator.create(engine, 8192, 4);
         visualize = new Visualize(memoryMgmt);
+        memoryMgmt.setGUI(visualize);
         ptrVariables = new LinkedList<>();
         
     }
 
     public void go() {
 
-        visualize.update();
-
         while (true) {
             System.out.println("\r\n=======================");
             System.out.println("Operations");
@@ -59,7 +68,7 @@ public class Freestyle implements Problem {
                 break; 
             }
 
-            int ptr;
+            long ptr;
 
             switch (selectedOption) {
                 case 1: 
@@ -89,15 +98,12 @@ public class Freestyle implements Problem {
 
     }
 
-    public int malloc(int size) {
-        int ptr = memoryMgmt.malloc(size);
-        visualize.update();
-        return ptr;
+    public long malloc(int size) {
+        return memoryMgmt.malloc(size);
     }
 
-    public void free(int ptr) {
+    public void free(long ptr) {
         memoryMgmt.free(ptr);
-        visualize.update();
     }
 
     public int inputSize() {
@@ -129,9 +135,9 @@ public class Freestyle implements Problem {
         return size;
     }
 
-    public int inputPointer() {
+    public long inputPointer() {
 
-        int ptr = -1;
+        long ptr = -1;
 
         while (true) {
             System.out.print("Pointer name (ptrX): " );
@@ -156,7 +162,7 @@ public class Freestyle implements Problem {
         return ptr;
     }
 
-    private int mapNametoPtr(String name) {
+    private long mapNametoPtr(String name) {
 
         for (PointerVariable variable : ptrVariables) {
             if (variable.name.equals(name)) { 
@@ -169,10 +175,10 @@ public class Freestyle implements Problem {
 
     private class PointerVariable {
 
-        int ptr;
+        long ptr;
         String name;
 
-        public PointerVariable(int ptr) {
+        public PointerVariable(long ptr) {
             this.ptr = ptr;
             this.name = "ptr" + variableCount;
         }
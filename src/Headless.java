@@ -0,0 +1,329 @@
+/*
+ * Headless runner
+ * One non-interactive allocator run per JVM: no menu, no GUI classes are ever loaded
+ * Prints a single result in the requested format and exits 0 if the run succeeded,
+ * 1 if it failed (e.g. heap exhausted) and 2 on bad arguments
+ *
+ * Usage: java src.Headless [--engine quick|buddy|tlsf|side] [--heap bytes] [--word 4|8]
+ *                          [--scenario tests|random] [--ops n] [--seed n]
+ *                          [--trace file] [--format text|json|csv] [--jfr false|true]
+ *
+ * tests  - the engine's own test scenarios, output silenced
+ * random - @ops seeded mallocs and frees of 1 to 512 bytes, half of the live blocks freed at random
+ *
+ * A trace replaces the scenario, one operation per line, '#' starts a comment:
+ * a <id> <size>   malloc, the pointer is kept under id
+ * f <id>          free
+ *
+ * --jfr true emits the quick fit flight recorder events (see AllocEvents), to a recording started
+ * with -XX:StartFlightRecording
+ *
+ * For scripted bulk runs, -XX:TieredStopAtLevel=1 -Xshare:auto keeps JVM startup to a minimum
+ */
+package src;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+public class Headless {
+
+    private static final String USAGE = "Usage: java src.Headless [--engine quick|buddy|tlsf|side] [--heap bytes] [--word 4|8] "
+        + "[--scenario tests|random] [--ops n] [--seed n] [--trace file] [--format text|json|csv] [--jfr false|true]";
+
+    String engine = "quick";
+    long memorySize = 8192;
+    int wordSize = 4;
+    String scenario = "tests";
+    int operations = 10000;
+    long seed = 1;
+    String trace;
+    String format = "text";
+    boolean flightRecorder = false;
+
+    public static void main(String[] args) {
+
+        // Anything touching the toolkit by accident fails fast instead of opening a display
+        System.setProperty("java.awt.headless", "true");
+
+        Headless headless;
+        Allocator allocator;
+
+        try {
+            headless = parse(args);
+            allocator = Allocator.create(headless.engine, headless.memorySize, headless.wordSize);
+            if (headless.flightRecorder) {
+                if (!(allocator instanceof MemoryMgmt)) throw new IllegalArgumentException("--jfr only applies to the quick engine.");
+                ((MemoryMgmt) allocator).setFlightRecorder(true);
+            }
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        Result result = headless.run(allocator);
+
+        System.out.println(result.format(headless.format));
+        System.exit(result.status.equals("ok") ? 0 : 1);
+    }
+
+    public static Headless parse(String[] args) {
+
+        Headless headless = new Headless();
+
+        for (int i = 0; i < args.length; i++) {
+
+            if (i+1 == args.length) throw new IllegalArgumentException("Missing value for " + args[i] + ".");
+
+            String value = args[++i];
+
+            try {
+                switch (args[i-1]) {
+                    case "--engine":
+                        headless.engine = value;
+                        break;
+                    case "--heap":
+                        headless.memorySize = Long.parseLong(value);
+                        break;
+                    case "--word":
+                        headless.wordSize = Integer.parseInt(value);
+                        break;
+                    case "--scenario":
+                        if (!value.equals("tests") && !value.equals("random")) throw new IllegalArgumentException("Unknown scenario '" + value + "'.");
+                        headless.scenario = value;
+                        break;
+                    case "--ops":
+                        headless.operations = Integer.parseInt(value);
+                        break;
+                    case "--seed":
+                        headless.seed = Long.parseLong(value);
+                        break;
+                    case "--trace":
+                        headless.trace = value;
+                        break;
+                    case "--format":
+                        if (!value.equals("text") && !value.equals("json") && !value.equals("csv")) throw new IllegalArgumentException("Unknown format '" + value + "'.");
+                        headless.format = value;
+                        break;
+                    case "--jfr":
+                        if (!value.equals("true") && !value.equals("false")) throw new IllegalArgumentException("Invalid value '" + value + "' for --jfr.");
+                        headless.flightRecorder = Boolean.parseBoolean(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option '" + args[i-1] + "'.");
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value '" + value + "' for " + args[i-1] + ".");
+            }
+        }
+
+        return headless;
+    }
+
+    // Runs the trace or scenario on @allocator, errors end the run and are reported in the result
+    public Result run(Allocator allocator) {
+
+        allocator.setVerbose(false);
+
+        Result result = new Result();
+        result.engine = allocator.name();
+        result.memorySize = memorySize;
+        result.wordSize = wordSize;
+        result.scenario = trace != null ? "trace" : scenario;
+
+        long start = System.nanoTime();
+
+        try {
+            if (trace != null) replay(allocator, result);
+            else if (scenario.equals("random")) random(allocator, result);
+            else allocator.print();
+            result.status = "ok";
+        } catch (IOException e) {
+            result.status = "error";
+            result.message = e.getClass().getSimpleName() + ": " + e.getMessage();
+        } catch (Error | RuntimeException e) {
+            result.status = "failed";
+            result.message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+
+        result.elapsedNanos = System.nanoTime() - start;
+
+        try (HeapView view = allocator.snapshot()) {
+            result.footprint = view.getCommittedSize();
+            for (int length : view.getExtensionLengths()) result.footprint += length;
+            result.extensions = view.getExtensionLengths().length;
+            result.fragmentation = fragmentation(view);
+        }
+
+        return result;
+    }
+
+    /*
+     * External fragmentation, 1 - largest free block / free space, read from the LEN tags in @view
+     * Every engine keeps the next block's LEN tag @length cells after the current one,
+     * so the scan jumps from block to block and only steps cell by cell over sentinels and unused space
+     */
+    static double fragmentation(HeapView view) {
+
+        ArrayList<long[]> segments = new ArrayList<>();
+        segments.add(new long[] { 0, view.getCommittedSize() });
+
+        long address = view.getHeapSize();
+        for (int length : view.getExtensionLengths()) {
+            segments.add(new long[] { address, length });
+            address += length;
+        }
+
+        for (Map.Entry<Long, Integer> entry : view.getLargeObjects().entrySet()) segments.add(new long[] { entry.getKey(), entry.getValue() });
+
+        long free = 0;
+        long largest = 0;
+
+        for (long[] segment : segments) {
+            long pointer = segment[0];
+            while (pointer < segment[0] + segment[1]) {
+                MemoryMgmt.Byte cell = view.getByte(pointer);
+                if (cell instanceof MemoryMgmt.FlaggedByte) {
+                    MemoryMgmt.FlaggedByte tag = (MemoryMgmt.FlaggedByte) cell;
+                    if (tag.type == MemoryMgmt.LengthType.LEN && tag.length > 0) {
+                        if (tag.flag == 'F') {
+                            free += tag.length;
+                            largest = Math.max(largest, tag.length);
+                        }
+                        pointer += tag.length;
+                        continue;
+                    }
+                }
+                pointer++;
+            }
+        }
+
+        return free == 0 ? 0 : 1 - (double) largest / free;
+    }
+
+    private void replay(Allocator allocator, Result result) throws IOException {
+
+        HashMap<String, Long> pointers = new HashMap<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(trace))) {
+
+            String line;
+            int number = 0;
+
+            while ((line = reader.readLine()) != null) {
+
+                number++;
+
+                int comment = line.indexOf('#');
+                if (comment >= 0) line = line.substring(0, comment);
+                line = line.trim();
+                if (line.isEmpty()) continue;
+
+                String[] fields = line.split("\\s+");
+
+                if (fields[0].equals("a") && fields.length == 3) {
+                    long ptr = allocator.malloc(Integer.parseInt(fields[2]));
+                    if (ptr == -1) result.failures++;
+                    else pointers.put(fields[1], ptr);
+                } else if (fields[0].equals("f") && fields.length == 2) {
+                    Long ptr = pointers.remove(fields[1]);
+                    if (ptr == null) result.failures++;
+                    else allocator.free(ptr);
+                } else {
+                    throw new IOException("Malformed trace line " + number + ": '" + line + "'.");
+                }
+
+                result.operations++;
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed trace size: " + e.getMessage());
+        }
+    }
+
+    private void random(Allocator allocator, Result result) {
+
+        Random random = new Random(seed);
+        ArrayList<Long> live = new ArrayList<>();
+
+        for (int i = 0; i < operations; i++) {
+            if (live.isEmpty() || random.nextBoolean()) {
+                live.add(allocator.malloc(1 + random.nextInt(512)));
+            } else {
+                // Swap-remove keeps the pick O(1)
+                int pick = random.nextInt(live.size());
+                long ptr = live.get(pick);
+                live.set(pick, live.get(live.size()-1));
+                live.remove(live.size()-1);
+                allocator.free(ptr);
+            }
+            result.operations++;
+        }
+    }
+
+    /*
+     * Outcome of one run
+     * status is "ok", "failed" (the allocator threw) or "error" (unreadable trace)
+     */
+    public static class Result {
+        public String engine;
+        public long memorySize;
+        public int wordSize;
+        public String scenario;
+        public String status;
+        public String message = "";
+        public long operations;
+        public long failures;           // Trace mallocs returning -1 and frees of unknown ids
+        public long footprint;          // Main heap and extensions, in bytes
+        public int extensions;
+        public long elapsedNanos;
+        public double fragmentation;    // External, of the heap left at the end of the run
+
+        public static final String CSV_HEADER = "engine,heap,word,scenario,status,operations,failures,footprint,extensions,elapsed_ns,fragmentation,message";
+
+        public String format(String format) {
+            switch (format) {
+                case "json":
+                    return toJson();
+                case "csv":
+                    return CSV_HEADER + "\n" + toCsv();
+                default:
+                    return toText();
+            }
+        }
+
+        public String toText() {
+            return "engine: " + engine + "\n"
+                + "heap: " + memorySize + "\n"
+                + "word: " + wordSize + "\n"
+                + "scenario: " + scenario + "\n"
+                + "status: " + status + "\n"
+                + "operations: " + operations + "\n"
+                + "failures: " + failures + "\n"
+                + "footprint: " + footprint + "\n"
+                + "extensions: " + extensions + "\n"
+                + "elapsed_ns: " + elapsedNanos + "\n"
+                + "fragmentation: " + String.format(Locale.ROOT, "%.3f", fragmentation)
+                + (message.isEmpty() ? "" : "\nmessage: " + message);
+        }
+
+        public String toJson() {
+            return "{\"engine\":\"" + engine + "\",\"heap\":" + memorySize + ",\"word\":" + wordSize
+                + ",\"scenario\":\"" + scenario + "\",\"status\":\"" + status + "\",\"operations\":" + operations
+                + ",\"failures\":" + failures + ",\"footprint\":" + footprint + ",\"extensions\":" + extensions
+                + ",\"elapsed_ns\":" + elapsedNanos + ",\"fragmentation\":" + String.format(Locale.ROOT, "%.3f", fragmentation) + ",\"message\":\"" + message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+        }
+
+        public String toCsv() {
+            return engine + "," + memorySize + "," + wordSize + "," + scenario + "," + status + "," + operations + ","
+                + failures + "," + footprint + "," + extensions + "," + elapsedNanos + "," + String.format(Locale.ROOT, "%.3f", fragmentation) + ",\"" + message.replace("\"", "\"\"") + "\"";
+        }
+    }
+}
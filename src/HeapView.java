@@ -0,0 +1,41 @@
+/*
+ * Read-only view of an allocator's segments at one point in time
+ * Cells follow the MemoryMgmt model: tags (FlaggedByte), list pointers (PointerByte) and data (DataByte)
+ */
+package src;
+
+import java.util.TreeMap;
+
+public interface HeapView extends AutoCloseable {
+
+    public MemoryMgmt.Byte getByte(long pointer);
+
+    public long getHeapSize();
+
+    // Main heap cells that exist, a lazily committed heap reads as null past them
+    public default long getCommittedSize() {
+        return getHeapSize();
+    }
+
+    // Lengths of the sbrk extensions, laid out back to back after the main heap
+    public int[] getExtensionLengths();
+
+    // Address and length of each large object segment
+    public TreeMap<Long, Integer> getLargeObjects();
+
+    /*
+     * Where blocks keep their metadata, for viewers telling tags apart from payload
+     * BOUNDARY_TAGS - PLEN and LEN words ahead of every block, list pointers in free blocks, the next block's PLEN as footer
+     * COMPACT_TAGS - an allocated block's data runs into the next block's PLEN word, only free blocks write a footer there
+     * OUT_OF_BAND - the heap holds payload only, the LEN tags a view returns are synthesized and take no space
+     */
+    public enum BlockLayout {
+        BOUNDARY_TAGS, COMPACT_TAGS, OUT_OF_BAND;
+    }
+
+    public default BlockLayout getBlockLayout() {
+        return BlockLayout.BOUNDARY_TAGS;
+    }
+
+    public void close();
+}
@@ -0,0 +1,279 @@
+/*
+ * Heap walk
+ * Enumerates every block of the main heap, the sbrk extensions and the large object segments
+ * Blocks are found through their LEN tags, each segment ends with a 0 length LEN sentinel
+ * The walk reads the live heap, the allocator must not run while it is in progress
+ */
+package src;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class HeapWalk {
+
+    private MemoryMgmt memoryMgmt;
+
+    private final int WORD;
+
+    // Segments to walk, start address and length
+    private long[] bases;
+    private int[] lengths;
+
+    // Blocks per segment below which a spliterator stops splitting inside it
+    private final int MIN_SPLIT = 4096;
+
+    public HeapWalk(MemoryMgmt memoryMgmt) {
+
+        this.memoryMgmt = memoryMgmt;
+        this.WORD = memoryMgmt.getWord();
+
+        ArrayList<long[]> segments = new ArrayList<>();
+
+        segments.add(new long[] { 0, memoryMgmt.getCommittedSize() });
+
+        long address = memoryMgmt.getMemorySize();
+
+        for (MemoryMgmt.Byte[] extension : memoryMgmt.getHeapExtensions()) {
+            segments.add(new long[] { address, extension.length });
+            address += extension.length;
+        }
+
+        for (Map.Entry<Long, MemoryMgmt.Byte[]> entry : memoryMgmt.getLargeObjects().entrySet()) {
+            segments.add(new long[] { entry.getKey(), entry.getValue().length });
+        }
+
+        bases = new long[segments.size()];
+        lengths = new int[segments.size()];
+        for (int i = 0; i < bases.length; i++) {
+            bases[i] = segments.get(i)[0];
+            lengths[i] = (int) segments.get(i)[1];
+        }
+    }
+
+    /*
+     * A block as seen by the walk
+     * U - allocated, F - free (listed), T - tail
+     */
+    public static class Block {
+        public final long address;
+        public final int length;
+        public final char state;
+        public final int segment;
+
+        public Block(long address, int length, char state, int segment) {
+            this.address = address;
+            this.length = length;
+            this.state = state;
+            this.segment = segment;
+        }
+    }
+
+    public Stream<Block> stream(boolean parallel) {
+        return StreamSupport.stream(new BlockSpliterator(0, bases.length, bases[0], -1), parallel);
+    }
+
+    // LEN tag of the block starting at @address, null at the segment end sentinel
+    private MemoryMgmt.FlaggedByte header(long address) {
+        MemoryMgmt.Byte cell = memoryMgmt.getByte(address+WORD);
+        if (!(cell instanceof MemoryMgmt.FlaggedByte)) return null;
+        MemoryMgmt.FlaggedByte header = (MemoryMgmt.FlaggedByte) cell;
+        if (header.length == 0) return null;
+        return header;
+    }
+
+    /*
+     * Block boundary that can be trusted without walking from the segment start:
+     * PLEN tag at @address, LEN tag after it, and a PLEN footer of the same length at the other end
+     */
+    private boolean verifiedBoundary(long address) {
+        // Compact tags leave allocated blocks without a footer to verify against
+        if (memoryMgmt.isCompactTags()) return false;
+        MemoryMgmt.Byte plen = memoryMgmt.getByte(address);
+        if (!(plen instanceof MemoryMgmt.FlaggedByte) || ((MemoryMgmt.FlaggedByte) plen).type != MemoryMgmt.LengthType.PLEN) return false;
+        MemoryMgmt.FlaggedByte header = header(address);
+        if (header == null || header.type != MemoryMgmt.LengthType.LEN) return false;
+        MemoryMgmt.Byte footer = memoryMgmt.getByte(address+header.length);
+        return footer instanceof MemoryMgmt.FlaggedByte
+            && ((MemoryMgmt.FlaggedByte) footer).type == MemoryMgmt.LengthType.PLEN
+            && ((MemoryMgmt.FlaggedByte) footer).length == header.length;
+    }
+
+    /*
+     * Walks segments [@segment, @segmentEnd)
+     * The first one from block @start, the last one up to block @end (-1 for the whole segment)
+     * Splits at segment boundaries first, then at verified boundary tags inside a large segment
+     */
+    private class BlockSpliterator implements Spliterator<Block> {
+
+        int segment;
+        int segmentEnd;
+        long current;
+        long end;
+
+        BlockSpliterator(int segment, int segmentEnd, long start, long end) {
+            this.segment = segment;
+            this.segmentEnd = segmentEnd;
+            this.current = start;
+            this.end = end;
+        }
+
+        long limit() {
+            if (segment == segmentEnd-1 && end != -1) return end;
+            return bases[segment] + lengths[segment];
+        }
+
+        public boolean tryAdvance(Consumer<? super Block> action) {
+            while (segment < segmentEnd) {
+                MemoryMgmt.FlaggedByte header = current < limit() ? header(current) : null;
+                if (header != null) {
+                    char state = header.flag;
+                    if (state == 'F' && segment == 0 && current == memoryMgmt.getTail()) state = 'T';
+                    action.accept(new Block(current, header.length, state, segment));
+                    current += header.length;
+                    return true;
+                }
+                segment++;
+                if (segment < segmentEnd) current = bases[segment];
+            }
+            return false;
+        }
+
+        public Spliterator<Block> trySplit() {
+
+            // Whole segments go to the new spliterator
+            if (segmentEnd - segment > 1) {
+                int middle = (segment + segmentEnd) / 2;
+                BlockSpliterator prefix = new BlockSpliterator(segment, middle, current, -1);
+                segment = middle;
+                current = bases[middle];
+                return prefix;
+            }
+
+            if (segment >= segmentEnd) return null;
+
+            long limit = limit();
+            if (limit - current < MIN_SPLIT) return null;
+
+            // Next verified boundary after the middle, aligned to DWORDs
+            long middle = current + ((limit - current) / 2) / (2*WORD) * (2*WORD);
+            for (long address = middle; address < limit; address += 2*WORD) {
+                if (verifiedBoundary(address)) {
+                    BlockSpliterator prefix = new BlockSpliterator(segment, segment+1, current, address);
+                    current = address;
+                    return prefix;
+                }
+            }
+            return null;
+        }
+
+        public long estimateSize() {
+            long cells = 0;
+            for (int i = segment; i < segmentEnd; i++) cells += lengths[i];
+            return cells / (4*WORD);
+        }
+
+        // Not IMMUTABLE, the source is the live heap and only the caller keeps the allocator still
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+
+    /*
+     * Fragmentation report
+     * External fragmentation = 1 - largest free block / total free space (tail included)
+     */
+    public String fragmentation() {
+
+        Map<Character, List<Block>> byState = stream(true).collect(Collectors.groupingByConcurrent(block -> block.state));
+
+        long used = 0;
+        long free = 0;
+        int largest = 0;
+
+        for (Block block : byState.getOrDefault('U', List.of())) used += block.length;
+        for (char state : new char[] { 'F', 'T' }) {
+            for (Block block : byState.getOrDefault(state, List.of())) {
+                free += block.length;
+                largest = Math.max(largest, block.length);
+            }
+        }
+
+        double external = free == 0 ? 0 : 1 - (double) largest / free;
+
+        return "Segments: " + bases.length
+            + ", used blocks: " + byState.getOrDefault('U', List.of()).size() + " (" + used + " bytes)"
+            + ", free blocks: " + byState.getOrDefault('F', List.of()).size() + " (" + (free - tailLength(byState)) + " bytes)"
+            + ", tail: " + tailLength(byState) + " bytes"
+            + ", largest free: " + largest + " bytes"
+            + ", external fragmentation: " + String.format("%.3f", external);
+    }
+
+    private long tailLength(Map<Character, List<Block>> byState) {
+        long length = 0;
+        for (Block block : byState.getOrDefault('T', List.of())) length += block.length;
+        return length;
+    }
+
+    /*
+     * Parallel consistency check, returns the violations found
+     * PLEN footer agrees with the LEN header (length and flag),
+     * with compact tags only free blocks have one and the next header's prevInUse bit mirrors the block's flag
+     * Free blocks are in the list their size maps to, listed blocks are free
+     * With @coalesced, no two adjacent blocks of a segment are free
+     */
+    public List<String> check(boolean coalesced) {
+
+        HashMap<Long, Integer> membership = memoryMgmt.listMembership();
+
+        List<String> violations = stream(true).flatMap(block -> {
+
+            ArrayList<String> found = new ArrayList<>();
+
+            MemoryMgmt.Byte footer = memoryMgmt.getByte(block.address + block.length);
+            MemoryMgmt.FlaggedByte header = header(block.address);
+            boolean compact = memoryMgmt.isCompactTags();
+
+            if ((!compact || header.flag == 'F') && (!(footer instanceof MemoryMgmt.FlaggedByte)
+                || ((MemoryMgmt.FlaggedByte) footer).length != block.length
+                || ((MemoryMgmt.FlaggedByte) footer).flag != header.flag)) {
+                found.add(memoryMgmt.integerToHex(block.address) + ": PLEN footer does not match LEN " + block.length);
+            }
+
+            if (compact) {
+                MemoryMgmt.Byte next = memoryMgmt.getByte(block.address + block.length + WORD);
+                if (!(next instanceof MemoryMgmt.FlaggedByte) || ((MemoryMgmt.FlaggedByte) next).prevInUse != (header.flag == 'U')) {
+                    found.add(memoryMgmt.integerToHex(block.address) + ": prevInUse bit after the block does not match LEN " + header.flag);
+                }
+            }
+
+            Integer list = membership.get(block.address);
+            if (block.state == 'F') {
+                int expected = memoryMgmt.isQuickSize(block.length) ? block.length : 0;
+                if (list == null || list != expected) {
+                    found.add(memoryMgmt.integerToHex(block.address) + ": free block missing from its " + (expected == 0 ? "misc list" : "bin"));
+                }
+            } else if (list != null) {
+                found.add(memoryMgmt.integerToHex(block.address) + ": " + (block.state == 'T' ? "tail" : "allocated block") + " is on a free list");
+            }
+
+            // The previous block's flag sits in this block's PLEN tag, or in its prevInUse bit with compact tags
+            MemoryMgmt.Byte plen = memoryMgmt.getByte(block.address);
+            boolean previousFree = compact ? !header.prevInUse
+                : plen instanceof MemoryMgmt.FlaggedByte && ((MemoryMgmt.FlaggedByte) plen).flag == 'F';
+            if (coalesced && block.state != 'U' && previousFree) {
+                found.add(memoryMgmt.integerToHex(block.address) + ": adjacent free blocks after coalescing");
+            }
+
+            return found.stream();
+        }).collect(Collectors.toList());
+
+        return violations;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Load generator for AllocServer
+ * Each connection keeps @depth malloc/write/read/free requests in flight and checks what it reads back
+ *
+ * Usage: java src.LoadClient [port | unix:path] [connections] [operations per connection] [pipeline depth]
+ */
+package src;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class LoadClient {
+
+    private static final int PAYLOAD = 16;
+
+    public static void main(String[] args) throws Exception {
+
+        String address = args.length > 0 ? args[0] : "7070";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        ArrayList<Future<Integer>> results = new ArrayList<>();
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < clients; i++) {
+            int seed = i;
+            results.add(executor.submit(() -> run(address, operations, depth, seed)));
+        }
+
+        int requests = 0;
+        for (Future<Integer> result : results) requests += result.get();
+
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        System.out.println(clients + " connections, depth " + depth + ": " + requests + " requests in " + elapsed / 1000000 + " ms");
+        System.out.println((long) (requests / (elapsed / 1e9)) + " requests/s");
+    }
+
+    /*
+     * One round per loop: @depth mallocs, then for every block a write, a read and a free, each stage pipelined
+     * Returns the number of requests sent
+     */
+    private static int run(String address, int operations, int depth, int seed) throws IOException {
+
+        Random random = new Random(seed);
+        ByteBuffer out = ByteBuffer.allocate(depth * (AllocServer.HEADER + PAYLOAD));
+        ByteBuffer in = ByteBuffer.allocate(depth * (4 + PAYLOAD));
+        long[] ptrs = new long[depth];
+        int requests = 0;
+
+        try (SocketChannel channel = open(address)) {
+
+            for (int done = 0; done < operations; done += depth) {
+
+                for (int i = 0; i < depth; i++) {
+                    out.put(AllocServer.MALLOC).putInt(PAYLOAD + random.nextInt(256));
+                }
+                exchange(channel, out, in, depth * 8);
+                for (int i = 0; i < depth; i++) {
+                    ptrs[i] = in.getLong();
+                    if (ptrs[i] == -1) throw new IllegalStateException("Server heap exhausted");
+                }
+
+                byte fill = (byte) random.nextInt();
+                for (int i = 0; i < depth; i++) {
+                    out.put(AllocServer.WRITE).putLong(ptrs[i]).putInt(0).putInt(PAYLOAD);
+                    for (int b = 0; b < PAYLOAD; b++) out.put((byte) (fill + i));
+                }
+                exchange(channel, out, in, depth * 4);
+                for (int i = 0; i < depth; i++) check(in.getInt() == 0, "write", ptrs[i]);
+
+                for (int i = 0; i < depth; i++) {
+                    out.put(AllocServer.READ).putLong(ptrs[i]).putInt(0).putInt(PAYLOAD);
+                }
+                exchange(channel, out, in, depth * (4 + PAYLOAD));
+                for (int i = 0; i < depth; i++) {
+                    check(in.getInt() == PAYLOAD, "read", ptrs[i]);
+                    for (int b = 0; b < PAYLOAD; b++) check(in.get() == (byte) (fill + i), "payload of", ptrs[i]);
+                }
+
+                for (int i = 0; i < depth; i++) {
+                    out.put(AllocServer.FREE).putLong(ptrs[i]);
+                }
+                exchange(channel, out, in, depth * 4);
+                for (int i = 0; i < depth; i++) check(in.getInt() == 0, "free", ptrs[i]);
+
+                requests += 4 * depth;
+            }
+        }
+        return requests;
+    }
+
+    private static SocketChannel open(String address) throws IOException {
+        if (address.startsWith("unix:")) {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(address.substring(5)));
+            return channel;
+        }
+        return SocketChannel.open(AllocServer.parseAddress(address));
+    }
+
+    // Sends the queued requests in one write and waits for @expected bytes of answers
+    private static void exchange(SocketChannel channel, ByteBuffer out, ByteBuffer in, int expected) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) channel.write(out);
+        out.clear();
+
+        in.clear();
+        in.limit(expected);
+        while (in.hasRemaining()) {
+            if (channel.read(in) == -1) throw new IOException("Server closed the connection");
+        }
+        in.flip();
+    }
+
+    private static void check(boolean condition, String operation, long ptr) {
+        if (!condition) throw new IllegalStateException("Failed " + operation + " " + Long.toHexString(ptr));
+    }
+}
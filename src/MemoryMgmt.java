@@ -6,24 +6,70 @@
  */
 package src;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
-
-public class MemoryMgmt {
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+public class MemoryMgmt implements Allocator {
     
     Visualize visualize;                    // GUI
 
-    private final int WORD = 4;             // 32-bit system
-    private final int NULL = -1;            
+    private boolean verbose = true;         // Tracing every operation to stdout
+
+    protected final int WORD;               // 4 on a 32-bit system, 8 on a 64-bit one
+    protected final int NULL = -1;            
     
+    /*
+     * Block sizes are rounded up to @ALIGNMENT
+     * 64-bit mode keeps blocks, and so payloads (block+2*WORD), 16-byte aligned
+     * The 32-bit model keeps exact block sizes
+     */
+    private final int ALIGNMENT;
+
+    // Addresses stay below this, 4 GB in 32-bit mode, 256 TB (48-bit virtual addresses) in 64-bit mode
+    private final long ADDRESS_LIMIT;
+
+    // Extensions are single arrays and main heap offsets are ints, so no segment goes beyond this many cells
+    private final long MAX_SEGMENT = Integer.MAX_VALUE - 8;
+
     private final int minQL = 1;
-    private final int maxQL = 16;
+    private int maxQL = 16;
 
-    private int memorySize;
+    private long memorySize;
 
     // Heap extensions after exceeding main heap memory limit
     private LinkedList<Byte[]> heapExtensions;
 
-    private Byte[] heap;                  // Array simulating heap virtual memory
+    /*
+     * Main heap cells, simulating heap virtual memory
+     * Split into chunks of 1 << @chunkShift cells, a chunk is only created by the first non-null cell written to it
+     */
+    private Byte[][] heapChunks;
+    private int chunkShift;
+
+    private final int HEAP_CHUNK = 1 << 16;     // Chunk size when the whole main heap is committed up front
+
+    /*
+     * Lazily committed main heap (reserve, then commit)
+     * All of @memorySize is reserved, extensions still start after it, but only the first @committed cells exist:
+     * the main heap ends at the committed boundary and the tail grows past it in @commitChunk steps on demand
+     * Chunks are @commitChunk cells then, so a commit only moves the boundary and copies nothing
+     */
+    private int commitChunk = 0;        // 0 commits the whole main heap up front
+    private long committed;
 
     /*
      * Memory is divided into:
@@ -31,7 +77,7 @@ public class MemoryMgmt {
      * Tail - untouched memory
      * Keeping track of this tail optimizes 2nd priority allocation
      */
-    private int tail;                   
+    private long tail;                   
 
     /*
      * Free lists of predefined sizes
@@ -39,6 +85,37 @@ public class MemoryMgmt {
      * n ranges in between @minQL and @maxQL
      */
     private Bin[] bins;
+
+    /*
+     * Bin lookup by block size, indexed by size/DWORD
+     * Covers sizes up to @maxAdaptiveSize so that adaptive quick lists can go beyond @maxQL DWORDs
+     */
+    private final int maxAdaptiveSize = 4096;
+
+    private Bin[] quickLists;
+
+    /*
+     * Adaptive quick lists (Weinstock)
+     * Request sizes are sampled into a histogram and every @adaptInterval requests
+     * the quick lists are reassigned to the @maxQL most frequent sizes
+     */
+    private int adaptInterval = 0;      // 0 keeps the fixed @minQL..@maxQL lists
+
+    private int[] sizeHistogram;
+
+    /*
+     * Batched bin refill
+     * A bin miss carves a batch of blocks of that size from the tail in one go, the first one serves the request
+     * and the rest are pre-linked into the bin, so a burst of one size turns into a run of bin hits
+     * Each bin adapts its own batch between 2 and @maxRefill (see refillBin)
+     */
+    private int maxRefill = 0;          // 0 carves one block per tail allocation
+
+    private int samples;
+
+    // Allocation counters
+    private long requests;
+    private long binHits;
     
     /*
      * Miscellaneous list of free blocks
@@ -48,13 +125,175 @@ public class MemoryMgmt {
      */
     private FreeList misc;              
 
+    /*
+     * Large objects (mmap-style)
+     * Requests above @largeThreshold bytes get a dedicated segment of their own
+     * Segments live in a separate address range starting at @MMAP_BASE, page aligned
+     * (above 4 GB in 64-bit mode, like a Linux mmap area)
+     * They never enter the bins, misc or tail, and free releases them directly
+     */
+    private final long MMAP_BASE;
+    private final int PAGE = 4096;
+
+    private int largeThreshold = 0;     // 0 disables the large object path
+
+    private TreeMap<Long, Byte[]> largeObjects;
+
+    private long mmapTop;                // Next unused address in the mmap range
+
+    /*
+     * Copy-on-write snapshots
+     * Taking a snapshot only bumps @epoch, pages are copied lazily:
+     * the first write to a page after a snapshot preserves its old contents for every open snapshot
+     * Pages are @COW_PAGE cells, aligned to the start of their segment
+     */
+    private final int COW_PAGE = 256;
+
+    private final ArrayList<Snapshot> snapshots = new ArrayList<>();   // Open snapshots
+
+    private volatile boolean snapshotting;
+
+    private int epoch;
+
+    private volatile HashMap<Long, Integer> pageEpochs;   // Epoch at which each page was last preserved
+
+    // Payload bytes per allocation, created on first write and dropped with the allocation
+    private HashMap<Long, byte[]> payloads;
+
+    /*
+     * Handles (compacting mode)
+     * Blocks allocated through allocHandle are only reachable via the indirection table,
+     * so the compactor is free to move them; raw malloc blocks stay pinned
+     */
+    private long[] handles;
+
+    private LinkedList<Integer> freeHandles;
+
+    private HashMap<Long, Integer> handleOf;     // Pointer of a movable block -> its handle
+
+    private boolean compacting = false;             // Compact before calling sbrk
+
+    private long compactCursor;                      // Block where the next incremental step starts
+
+    /*
+     * Side bitmaps of live allocation starts
+     * @allocated - one bit per address of the main heap and extensions
+     * @mapped - one bit per page of the large object range
+     * Pointer validation never has to read the heap
+     */
+    private Bitmap allocated;
+    private Bitmap mapped;
+
+    /*
+     * Parallel coalescing
+     * The main heap and every extension are fenced by 'U' sentinels, so each one is coalesced independently
+     * Large segments are split further at allocated blocks
+     */
+    private boolean parallelCoalesce = false;
+
+    private final int COALESCE_SPLIT = 1 << 16;     // Cells below which a task runs sequentially
+
+    // Sampling allocation profiler, null when off
+    private AllocProfiler profiler;
+
+    /*
+     * Flight recorder events, see AllocEvents
+     * malloc, free, coalescing passes, sbrk and merges are timed, heap statistics and bin occupancy are periodic
+     */
+    private boolean flightRecorder = false;
+
+    private Runnable statisticsHook;            // Periodic event hook while recording
+
+    private long merges;                        // Blocks absorbed by coalescing so far
+
+    private AllocProfiler.Path lastPath;        // Path of the last successful malloc
+
+    /*
+     * Heap limit (backpressure)
+     * Committed main heap, extensions and large objects together stay below @heapLimit bytes
+     * A malloc that would grow past it runs the reclaim callbacks, then waits up to @limitTimeout ms for frees,
+     * searching the free lists again after each release, and returns NULL once nothing more is released
+     * Concurrent callers synchronize on the instance (as AllocServer does), a waiting malloc releases the monitor
+     */
+    private long heapLimit = 0;                 // 0 lets the heap grow without limit
+
+    private long limitTimeout = 0;
+
+    private ArrayList<Reclaimer> reclaimers = new ArrayList<>();
+
+    private long released;                      // Bytes freed so far, tells a waiting malloc that a retry is worth it
+
+    private int waiters;                        // Mallocs waiting for frees
+
+    /*
+     * Compact tags (dlmalloc style boundary tags)
+     * Allocated blocks keep only their LEN header, whose prevInUse bit tells whether the block before is allocated
+     * The PLEN footer is only written while a block is free, the only time coalescing reads it,
+     * so an allocated block also owns the word of the next block's PLEN tag: one word less per allocation
+     * Compaction is not supported in this format, and segments are not split for parallel coalescing
+     */
+    private boolean compactTags = false;
+
+    /*
+     * Regions (arenas)
+     * A region bump-allocates from chunks it mallocs, closing it frees each chunk as one block
+     * Regions nest, @regions holds the open ones innermost last
+     */
+    private final int REGION_CHUNK = 1024;
+
+    private LinkedList<Region> regions;
+
+    /*
+     * Sbrk growth policy
+     * FIT - smallest power of two holding the block and the extension's sentinels
+     * DOUBLING - at least twice the previous extension (up to @MAX_DOUBLING cells), fewer and larger sbrks
+     */
+    public enum Growth {
+        FIT, DOUBLING;
+    }
+
+    private Growth growth = Growth.FIT;
+
+    private final int MAX_DOUBLING = 1 << 20;
+
     // Distinction between length and previous length
     public enum LengthType {
         PLEN, LEN;
     }
     
     public MemoryMgmt(int memorySize) {
+        this(memorySize, 4);
+    }
+
+    /*
+     * @wordSize 4 - 32-bit model, 8 - 64-bit model (8-byte words, 16-byte alignment, addresses above 4 GB)
+     * Bin size classes are n*DWORD + overhead, so they follow the word size
+     */
+    public MemoryMgmt(long memorySize, int wordSize) {
+        this(memorySize, wordSize, 0);
+    }
+
+    // @commitChunk - lazily committed main heap, see setLazyCommit (huge reservations never exist in full)
+    public MemoryMgmt(long memorySize, int wordSize, int commitChunk) {
+
+        if (wordSize != 4 && wordSize != 8) throw new IllegalArgumentException("Word size must be 4 or 8 bytes.");
+
+        WORD = wordSize;
+        ALIGNMENT = WORD == 8 ? 2*WORD : 1;
+        ADDRESS_LIMIT = WORD == 8 ? 1L << 48 : 1L << 32;
+        MMAP_BASE = WORD == 8 ? 0x7f0000000000L : 0x40000000L;
+
+        // The main heap stays below the large object area, 1 GB in 32-bit mode
+        if (memorySize < 8*WORD || memorySize > Math.min(MAX_SEGMENT, MMAP_BASE) || memorySize % ALIGNMENT != 0) {
+            throw new IllegalArgumentException("Main heap of " + memorySize + " bytes is not supported with " + WORD + " byte words.");
+        }
+
+        if (commitChunk != 0 && (commitChunk < 8*WORD || Integer.bitCount(commitChunk) != 1)) {
+            throw new IllegalArgumentException("Commit chunk must be a power of two of at least " + 8*WORD + " bytes.");
+        }
+
         this.memorySize = memorySize;
+        this.commitChunk = commitChunk;
         visualize = null;
         initializeMemory();
     }
@@ -66,41 +305,101 @@ public class MemoryMgmt {
      * 4. [1st run] Coalesce -> go to 1.
      * 5. [2nd run] Request for more memory (sbrk)
      */
-    public int malloc(int size) {
+    public long malloc(int size) {
 
-        int actualSize = size;
+        if (!flightRecorder) return allocate(size);
 
-        if (size < 2*WORD) actualSize = 2*WORD;   // Minimum amount necessary to create a free block
+        AllocEvents.Malloc event = new AllocEvents.Malloc();
+        event.begin();
 
-        actualSize = actualSize + 2*WORD;
+        lastPath = null;
+        long ptr = allocate(size);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.size = size;
+            event.blockSize = size > 0 ? blockSize(size) : 0;
+            event.path = ptr == NULL || lastPath == null ? "failed" : lastPath.name().toLowerCase();
+            event.pointer = ptr;
+            event.commit();
+        }
+
+        return ptr;
+    }
+
+    private long allocate(int size) {
+
+        int actualSize = blockSize(size);
+
+        long deadline = 0;                  // Set once the heap limit is first hit
+
+        // Large objects skip the free lists (and the coalesce-before-grow stall)
+        if (largeThreshold > 0 && size > largeThreshold) {
+            log("Requesting " + size + " bytes of memory ... ");
+            for (long seen = releasedBytes(); !withinLimit(((long) actualSize+2*WORD + PAGE-1) / PAGE * PAGE); seen = releasedBytes()) {
+                if (deadline == 0) deadline = System.nanoTime() + limitTimeout*1_000_000L;
+                if (!relieve(actualSize, deadline, seen)) {
+                    log("\nHeap limit of " + heapLimit + " bytes reached. Exiting.\n\n");
+                    return NULL;
+                }
+            }
+            return profiled(mapLarge(actualSize), actualSize, AllocProfiler.Path.LARGE);
+        }
+
+        if (size > 0) {
+            requests++;
+            if (adaptInterval > 0) sampleSize(actualSize);
+        }
 
         boolean coalesced = false;
+        boolean compacted = false;
+
+        long seen = 0;                      // Bytes released before this search, frees after it make a retry worth it
 
         // Looping until coalesced
         while (true) {
 
-            if (!coalesced) System.out.print("Requesting " + size + " bytes of memory ... ");
+            if (!coalesced && deadline == 0) log("Requesting " + size + " bytes of memory ... ");
+
+            if (!coalesced && heapLimit > 0) seen = releasedBytes();
         
             if (size <= 0) {
-                System.out.print("Exception triggered in thread. Exiting.\n\n");
+                log("Exception triggered in thread. Exiting.\n\n");
                 return NULL;
             }
             
             // Bins
 
-            int pointer = checkBins(actualSize);  
+            long pointer = checkBins(actualSize);  
 
             if (pointer != NULL) {
 
+                binHits++;
+                getBin(actualSize).hits++;
+
                 allocateSpace(actualSize, pointer, true);
 
-                System.out.print("memory allocated.\n");
-                System.out.print("Pointer: " + integerToHex(pointer+2*WORD) + "\n\n");
+                log("memory allocated.\n");
+                log("Pointer: " + integerToHex(pointer+2*WORD) + "\n\n");
 
-                return pointer+2*WORD;
+                return profiled(pointer+2*WORD, actualSize, AllocProfiler.Path.BIN);
 
             } else {
 
+                // Batched refill of an empty bin from the tail
+
+                Bin bin = maxRefill > 1 ? getBin(actualSize) : null;
+
+                pointer = bin != null ? refillBin(bin) : NULL;
+
+                if (pointer != NULL) {
+
+                    log("memory allocated.\n");
+                    log("Pointer: " + integerToHex(pointer+2*WORD) + "\n\n");
+
+                    return profiled(pointer+2*WORD, actualSize, AllocProfiler.Path.TAIL);
+                }
+
                 // Tail 
 
                 pointer = checkTail(actualSize, tail);
@@ -109,10 +408,10 @@ public class MemoryMgmt {
 
                     allocateSpace(actualSize, pointer, false);
 
-                    System.out.print("memory allocated.\n");
-                    System.out.print("Pointer: " + integerToHex(pointer+2*WORD) + "\n\n");
+                    log("memory allocated.\n");
+                    log("Pointer: " + integerToHex(pointer+2*WORD) + "\n\n");
 
-                    return pointer+2*WORD;
+                    return profiled(pointer+2*WORD, actualSize, AllocProfiler.Path.TAIL);
 
                 } else {
 
@@ -124,217 +423,1301 @@ public class MemoryMgmt {
 
                         allocateSpace(actualSize, pointer, false);
 
-                        System.out.print("memory allocated.\n");
-                        System.out.print("Pointer: " + integerToHex(pointer+2*WORD) + "\n\n");
+                        log("memory allocated.\n");
+                        log("Pointer: " + integerToHex(pointer+2*WORD) + "\n\n");
 
-                        return pointer+2*WORD;
+                        return profiled(pointer+2*WORD, actualSize, AllocProfiler.Path.MISC);
                     }
                 }
             }
 
-            if (coalesced) break;
+            if (coalesced && (!compacting || compacted)) {
+
+                if (withinLimit(extensionSize(actualSize))) break;
+
+                // Heap limit, reclaiming or waiting for frees instead of growing, then searching again
+                if (deadline == 0) deadline = System.nanoTime() + limitTimeout*1_000_000L;
+
+                if (!relieve(actualSize, deadline, seen)) {
+                    log("\nHeap limit of " + heapLimit + " bytes reached. Exiting.\n\n");
+                    return NULL;
+                }
+
+                log("\nMemory released, searching again ... ");
+
+                coalesced = false;
+                compacted = false;
+                continue;
+            }
+
+            // Compacting mode, sliding movable blocks down before growing
+            if (coalesced) {
+                log("\nCompacting movable blocks ... ");
+                compact(Integer.MAX_VALUE);
+                compacted = true;
+                continue;
+            }
 
-            System.out.print("\nAttempting to coalesce free blocks ... ");
+            log("\nAttempting to coalesce free blocks ... ");
 
             // If no space available, coalesce adjacent free blocks
-            coalescePass();
+            if (parallelCoalesce) parallelCoalescePass();
+            else coalescePass();
 
             coalesced = true;
         }
 
-        System.out.print("\nMemory limit exceeded, requesting further memory blocks ... ");
+        log("\nMemory limit exceeded, requesting further memory blocks ... ");
 
         sbrk(actualSize);
 
         // Search for new freeblock *we can skip tail and bin search*
-        int extensionPointer = checkMisc(actualSize);
+        long extensionPointer = checkMisc(actualSize);
 
         if (extensionPointer == NULL) throw new MemoryError("Memory request failed.");
         
         allocateSpace(actualSize, extensionPointer, false);
         
-        System.out.print("memory allocated.\n");
-        System.out.print("Pointer: " + integerToHex(extensionPointer+2*WORD) + "\n\n");
+        log("memory allocated.\n");
+        log("Pointer: " + integerToHex(extensionPointer+2*WORD) + "\n\n");
+
+        return profiled(extensionPointer+2*WORD, actualSize, AllocProfiler.Path.SBRK);
+    }
 
-        return extensionPointer+2*WORD;    
+    // Profiler hook on every successful malloc, a subtraction unless a sample is due
+    private long profiled(long ptr, int size, AllocProfiler.Path path) {
+        if (profiler != null) profiler.allocated(ptr, size, path);
+        lastPath = path;
+        return ptr;
     }
 
     /*
      * If size corresponds to n*DWORD + overhead -> add free block to bin
      * If not, add to misc
      */
-    public void free(int ptr) {
+    public void free(long ptr) {
+
+        if (!flightRecorder) {
+            deallocate(ptr);
+            return;
+        }
+
+        AllocEvents.Free event = new AllocEvents.Free();
+        event.begin();
 
-        if (ptr <= 4){ 
-            System.out.print("Invalid pointer ... Exception triggered in thread. Exiting.\n\n");
+        int blockSize = !isAllocated(ptr) ? 0
+            : ptr >= MMAP_BASE ? largeObjects.get(ptr-2*WORD).length
+            : ((FlaggedByte) getByte(ptr-WORD)).length;
+
+        deallocate(ptr);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.pointer = ptr;
+            event.blockSize = blockSize;
+            event.commit();
+        }
+    }
+
+    private void deallocate(long ptr) {
+
+        if (ptr <= WORD){ 
+            log("Invalid pointer ... Exception triggered in thread. Exiting.\n\n");
             return;
         }
 
-        System.out.print("Freeing pointer " + integerToHex(ptr) + " ... ");
+        log("Freeing pointer " + integerToHex(ptr) + " ... ");
 
-        if (!(getByte(ptr-WORD) instanceof FlaggedByte)) {
-            System.out.print("Exception triggered in thread. Exiting.\n\n");
+        if (ptr >= MMAP_BASE) {
+            unmapLarge(ptr);
             return;
         }
 
-        if (((FlaggedByte) getByte(ptr-WORD)).flag == 'F') {
-            System.out.print("Exception triggered in thread. Exiting.\n\n");
+        // Invalid pointers and double frees
+        if (!isAllocated(ptr)) {
+            log("Exception triggered in thread. Exiting.\n\n");
             return;
         }
 
+        allocated.clear(ptr);
+        payloads.remove(ptr);
+
+        if (profiler != null) profiler.freed(ptr);
+
         int blockSize = ((FlaggedByte) getByte(ptr-WORD)).length;
-        int ptrToBlock = ptr - 2*WORD;
+        long ptrToBlock = ptr - 2*WORD;
 
-        ((FlaggedByte) getByte(ptrToBlock+WORD)).flag = 'F';
-        ((FlaggedByte) getByte(ptrToBlock+blockSize)).flag = 'F';
+        ((FlaggedByte) writeByte(ptrToBlock+WORD)).flag = 'F';
+
+        if (compactTags) {
+            setByte(ptrToBlock+blockSize, new FlaggedByte('F', blockSize, LengthType.PLEN));
+            setNextPrevInUse(ptrToBlock, blockSize, false);
+        } else {
+            ((FlaggedByte) writeByte(ptrToBlock+blockSize)).flag = 'F';
+        }
 
         getListOrigin(blockSize).addToList(ptrToBlock);
 
-        System.out.print("memory freed.\n\n");
+        log("memory freed.\n\n");
 
-        refreshGUI();
+        refreshGUI(ptrToBlock, blockSize, 'F');
+
+        release(blockSize);
     }
 
     public Byte[] sbrk(int size) {
 
-        int closestPower = 0;
+        AllocEvents.Sbrk event = flightRecorder ? new AllocEvents.Sbrk() : null;
+        if (event != null) event.begin();
 
-        int i = 0;
-        while(true) {
-            closestPower = (int) Math.pow(2, i);
-            // Add 2 WORDS to power due to the extra 2 cells for metadata at the end
-            if (size == closestPower-2*WORD) break;
-            // Preventing unreacheable memory, we need the freeblock at the end
-            if (((closestPower-2*WORD)-size >= 16)) break;
-            i++;
+        long macroPointer = extend(size);
+
+        // Adding newly created free block to misc 
+        misc.addToList(macroPointer);
+
+        if (event != null) {
+            event.requested = size;
+            event.extension = heapExtensions.getLast().length;
+            event.commit();
         }
 
+        return heapExtensions.getLast();
+    }
+
+    /*
+     * Maps a new extension large enough for a @size byte block
+     * The extension holds a single free block, which is returned unlisted
+     */
+    protected long extend(int size) {
+
+        int closestPower = extensionSize(size);
+
+        // Engines without backpressure fail here, quick fit never gets this far past the limit
+        if (!withinLimit(closestPower)) throw new MemoryError("Heap limit of " + heapLimit + " bytes reached.");
+
         Byte[] extension = new Byte[closestPower];
 
         // Start *this will prevent coallescing across sbrk-allocated boundaries*
         extension[0] = new FlaggedByte('U', 0, LengthType.PLEN);    
         
         // End
-        extension[closestPower-WORD] = new FlaggedByte('U', 0, LengthType.LEN);     
+        extension[closestPower-WORD] = new FlaggedByte('U', 0, LengthType.LEN, false);     
 
         // First free block
-        extension[WORD] = new FlaggedByte('F', closestPower-WORD*2, LengthType.LEN);
+        extension[WORD] = new FlaggedByte('F', closestPower-WORD*2, LengthType.LEN, true);
         extension[closestPower-WORD*2] = new FlaggedByte('F', closestPower-WORD*2, LengthType.PLEN);
 
-        int macroPointer = memorySize;
+        long macroPointer = memorySize;
 
         for (Byte[] exten : heapExtensions) {
             macroPointer += exten.length;
         }
 
+        // Extensions grow up towards the large object range
+        if (macroPointer + closestPower > MMAP_BASE) throw new MemoryError("Heap address space exhausted.");
+
         heapExtensions.add(extension);
-        
-        // Adding newly created free block to misc 
-        misc.addToList(macroPointer);
 
-        return extension;
+        if (visualize != null) visualize.segmentMapped(macroPointer, closestPower);
+        refreshGUI(macroPointer, closestPower-2*WORD, 'F');
+
+        return macroPointer;
     }
     
-    // Running tests
-    public void print() {
-        test1();
-        test2();
-        test3();
-        test4();
-        test5();
-        test6();
-        test7();
-        test8();
-        test9();
-        test10();
-        test11();
-        test12();
-        test13();
-        test14();
+    // Power-of-two extension holding a @size byte block
+    private int extensionSize(int size) {
+
+        int closestPower = 0;
+
+        int i = 0;
+        while(true) {
+            closestPower = (int) Math.pow(2, i);
+            // Add 2 WORDS to power due to the extra 2 cells for metadata at the end
+            if (size == closestPower-2*WORD) break;
+            // Preventing unreacheable memory, we need the freeblock at the end
+            if (((closestPower-2*WORD)-size >= 4*WORD)) break;
+            i++;
+        }
+
+        if (growth == Growth.DOUBLING && !heapExtensions.isEmpty()) {
+            closestPower = Math.max(closestPower, Math.min(2*heapExtensions.getLast().length, MAX_DOUBLING));
+        }
+
+        return closestPower;
     }
 
-    public int checkBins(int size) {
-        
-        // Checking if the memory requested corresponds to a predefined size
-        if (size >= (bins[0].freeArea) && size % (2*WORD) == 0) {
-            int index = (size/(2*WORD)) - 2;
-            if (index > maxQL-1) return NULL;
-            Bin bin = bins[index];
-            if (bin.HEAD != NULL) return bin.HEAD;
-        } 
-        return NULL;
+    // Bytes of the committed main heap, extensions and large objects
+    public long footprint() {
+        long footprint = committed;
+        for (Byte[] extension : heapExtensions) footprint += extension.length;
+        for (Byte[] segment : largeObjects.values()) footprint += (segment.length + PAGE-1) / PAGE * PAGE;
+        return footprint;
     }
 
-    public int checkTail(int size, int freeblock) {
+    private boolean withinLimit(long growth) {
+        return heapLimit == 0 || footprint() + growth <= heapLimit;
+    }
 
-        // If the tail is pointing to the end
-        if (tail == memorySize-2*WORD) return NULL;
+    /*
+     * Heap limit reached
+     * 1. Reclaim callbacks in registration order, until one of them frees something
+     * 2. Waiting for a free from another thread, until @deadline (System.nanoTime)
+     * @seen - bytes released before the failed search, so a free landing since then is never missed
+     * Returns true if memory was released, false once the callbacks and the wait came to nothing
+     */
+    private boolean relieve(int size, long deadline, long seen) {
 
-        // Calculating remaining memory after hypothetical tail allocation
-        int tailRemainingSize = ((FlaggedByte) heap[tail+WORD]).length - size;
+        if (releasedBytes() != seen) return true;
 
-        /*
-         * Accepting only if block fits perfectly
-         * Or if there is enough space to build a new free block (at least 4 words for metadata)
-         * Avoids unreachable memory
-         */
-        if (tailRemainingSize == 0 || tailRemainingSize >= 4*WORD) return tail;
-    
-        return NULL;
-    }
+        for (Reclaimer reclaimer : new ArrayList<>(reclaimers)) {
+            log("\nHeap limit reached, reclaiming ... ");
+            reclaimer.reclaim(size);
+            if (releasedBytes() != seen) return true;
+        }
 
-    // First Fit
-    public int checkMisc(int size) {
+        synchronized (this) {
+            while (released == seen) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return false;
+                waiters++;
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } finally {
+                    waiters--;
+                }
+            }
+        }
 
-        if (misc.HEAD == NULL) return NULL;         // Checking if misc is empty
-        
-        int current = misc.HEAD;                    // Current free block
+        return true;
+    }
 
-        do {
-            int remainingSize = ((FlaggedByte) getByte(current+WORD)).length - size; // Calculating hypothetical remaining size
-            /*
-             * Accepting only if block fits perfectly
-             * Or if there is enough space to build a new free block (at least 4 words for metadata)
-             * Avoids unreachable memory
-             */
-            if (remainingSize == 0 || remainingSize >= 4*WORD) return current;
-            current = ((PointerByte) getByte(current+3*WORD)).pointer;   // Iterating to next free block in list
-        } while (current != NULL);
+    private synchronized long releasedBytes() {
+        return released;
+    }
 
-        return NULL;
+    // Wakes up mallocs waiting on the heap limit, @released and @waiters only change under the monitor
+    private synchronized void release(long bytes) {
+        released += bytes;
+        if (waiters > 0) notifyAll();
     }
 
-    public void allocateSpace(int size, int freeblock, boolean binAlloc) {
+    /*
+     * Dedicated segment for a single large block
+     * Same layout as an sbrk extension, but holding one allocated block:
+     * [U PLEN sentinel][U LEN header] payload [U PLEN footer][U LEN end sentinel]
+     */
+    public long mapLarge(int size) {
 
-        if (binAlloc) {
-            // Double check if the byte at the other end is flagged
-            if (! (getByte(freeblock+size) instanceof FlaggedByte)) {
-                throw new MemoryError("Byte at " + (freeblock+size) + "should be flagged");
-            } else {
+        Byte[] segment = new Byte[size+2*WORD];
 
-                getListOrigin(size).removeFromList(freeblock);
+        segment[0] = new FlaggedByte('U', 0, LengthType.PLEN);
+        segment[WORD] = new FlaggedByte('U', size, LengthType.LEN, true);
+        if (!compactTags) segment[size] = new FlaggedByte('U', size, LengthType.PLEN);
+        segment[size+WORD] = new FlaggedByte('U', 0, LengthType.LEN, true);
 
-                setByte(freeblock+WORD, new FlaggedByte('U', size, LengthType.LEN));
-                
-                ((FlaggedByte) getByte(freeblock+size)).flag = 'U';
+        long pointer = mmapTop;
 
-                refreshGUI();
-                return;
-            }
-        } else {
+        // Page aligned, freed ranges are never reused
+        mmapTop += ((segment.length + PAGE-1) / PAGE) * PAGE;
 
-            int blockSize = ((FlaggedByte) getByte(freeblock+WORD)).length;
+        if (mmapTop > ADDRESS_LIMIT) throw new MemoryError("Large object address space exhausted.");
 
-            setByte(freeblock+WORD, new FlaggedByte('U', size, LengthType.LEN));
+        largeObjects.put(pointer, segment);
+        mapped.set((pointer-MMAP_BASE)/PAGE);
 
-            setByte(freeblock+size, new FlaggedByte('U', size, LengthType.PLEN));
+        log("dedicated segment mapped.\n");
+        log("Pointer: " + integerToHex(pointer+2*WORD) + "\n\n");
 
-            if (freeblock != tail) misc.removeFromList(freeblock);  // If it is a misc allocation, we remove the freeblock from the list
-                
-            // if it is not a perfect fit, create a new free block
-            if (blockSize != size) {
-                setByte(freeblock+size+WORD, new FlaggedByte('F', blockSize-size, LengthType.LEN));
-                ((FlaggedByte) getByte(freeblock+blockSize)).length = blockSize - size;
+        if (visualize != null) visualize.segmentMapped(pointer, segment.length);
+        refreshGUI(pointer, size, 'U');
+
+        return pointer+2*WORD;
+    }
+
+    public void unmapLarge(long ptr) {
+
+        // Only exact block starts are accepted
+        if (!isAllocated(ptr)) {
+            log("Exception triggered in thread. Exiting.\n\n");
+            return;
+        }
+
+        Byte[] segment = largeObjects.remove(ptr-2*WORD);
+        mapped.clear((ptr-2*WORD-MMAP_BASE)/PAGE);
+
+        if (profiler != null) profiler.freed(ptr);
+
+        payloads.remove(ptr);
+
+        log("dedicated segment released.\n\n");
+
+        if (visualize != null) visualize.segmentUnmapped(ptr-2*WORD);
+
+        release((segment.length + PAGE-1) / PAGE * PAGE);
+    }
+
+    /*
+     * Consistent, immutable point-in-time view of the heap, extensions, large objects, bins and misc
+     * O(1) in heap size, pages are only copied when the allocator later writes to them
+     * Take it between operations on the allocator thread; it can then be read from any thread
+     * Close it once done so that writes stop preserving pages for it
+     */
+    public Snapshot snapshot() {
+
+        Snapshot snapshot = new Snapshot();
+
+        synchronized (snapshots) {
+            epoch++;
+            snapshot.epoch = epoch;
+            snapshots.add(snapshot);
+            snapshotting = true;
+        }
+
+        return snapshot;
+    }
+
+    // Preserves the page holding @pointer for open snapshots that have not seen a write to it yet
+    private void preserve(long pointer) {
+
+        if (!snapshotting) return;
+
+        long base = segmentBase(pointer);
+        if (base == NULL) return;
+
+        Byte[] segment = segmentAt(base);       // null for the main heap, read through its chunks
+
+        long page = base + ((pointer-base)/COW_PAGE)*COW_PAGE;
+
+        HashMap<Long, Integer> epochs = pageEpochs;
+        Integer last = epochs.get(page);
+        int lastEpoch = last == null ? 0 : last;
+
+        if (lastEpoch == epoch) return;
+
+        // Deep copy, tags are mutated in place
+        long length = segment == null ? committed : segment.length;
+        Byte[] copy = new Byte[(int) Math.max(0, Math.min(COW_PAGE, length-(page-base)))];
+        for (int i = 0; i < copy.length; i++) {
+            Byte cell = segment == null ? heapCell(page+i) : segment[(int) (page-base)+i];
+            copy[i] = cell == null ? null : cell.copy();
+        }
+
+        synchronized (snapshots) {
+            for (Snapshot snapshot : snapshots) {
+                if (snapshot.epoch > lastEpoch) snapshot.pages.putIfAbsent(page, copy);
+            }
+        }
+
+        epochs.put(page, epoch);
+    }
+
+    /*
+     * Checkpoint file layout (memory-mapped both ways):
+     * Header   - magic, WORD (| @COMPACT_FORMAT), memorySize, tail, mmapTop, bins (size, HEAD, TAIL), misc (HEAD, TAIL)
+     * Segments - kind (heap, extension, large object), address, length, number of cells
+     * Cells    - only non-empty cells, @CELL_RECORD bytes each: offset, kind, flag, type, prevInUse, value
+     * Addresses and pointer cells are stored as longs whatever the word size
+     * Strings  - payload of data cells, referenced by index
+     * Payloads - number of written allocations, then the pointer, length and raw payload bytes of each
+     * Handles  - size of the handle table, then the pointer behind each handle (NULL if free)
+     * Only non-empty cells are stored and decoded: the main heap only gets the chunks they fall in,
+     * extensions and large objects are arrays of their full length
+     * Restoring parses and checks the whole file before it replaces anything
+     */
+    private final int CHECKPOINT_MAGIC = 0x51464954;   // "QFIT"
+    private final int CELL_RECORD = 16;
+    private final int COMPACT_FORMAT = 1 << 8;      // Set in the WORD field for compact tag heaps
+
+    public void checkpoint(String path) throws IOException {
+
+        requireQuickFit("checkpoints");
+
+        ArrayList<Long> addresses = new ArrayList<>();
+        ArrayList<Long> lengths = new ArrayList<>();
+        ArrayList<Byte[][]> segments = new ArrayList<>();     // Cells in chunks, a single one except for the main heap
+        ArrayList<Integer> kinds = new ArrayList<>();
+
+        addresses.add(0L);
+        lengths.add(committed);
+        segments.add(heapChunks);
+        kinds.add(0);
+
+        long macroPointer = memorySize;
+        for (Byte[] extension : heapExtensions) {
+            addresses.add(macroPointer);
+            lengths.add((long) extension.length);
+            segments.add(new Byte[][] { extension });
+            kinds.add(1);
+            macroPointer += extension.length;
+        }
+
+        for (Map.Entry<Long, Byte[]> entry : largeObjects.entrySet()) {
+            addresses.add(entry.getKey());
+            lengths.add((long) entry.getValue().length);
+            segments.add(new Byte[][] { entry.getValue() });
+            kinds.add(2);
+        }
+
+        // Sizing the file
+        ArrayList<byte[]> strings = new ArrayList<>();
+        long size = 5*4 + 5*8 + bins.length*(4+2*8) + segments.size()*(3*4+8);
+        int[] cellCounts = new int[segments.size()];
+
+        for (int i = 0; i < segments.size(); i++) {
+            Byte[][] chunks = segments.get(i);
+            for (int c = 0; c < chunks.length; c++) {
+                if (chunks[c] == null) continue;
+                long limit = Math.min(chunks[c].length, lengths.get(i) - (long) c*chunks[c].length);
+                for (int k = 0; k < limit; k++) {
+                    Byte cell = chunks[c][k];
+                    if (cell == null) continue;
+                    cellCounts[i]++;
+                    if (cell instanceof DataByte) {
+                        byte[] utf = ((DataByte) cell).data.getBytes(StandardCharsets.UTF_8);
+                        strings.add(utf);
+                        size += 4 + utf.length;
+                    }
+                }
+            }
+            size += (long) cellCounts[i]*CELL_RECORD;
+        }
+
+        size += 4;
+        for (byte[] payload : payloads.values()) size += 8 + 4 + payload.length;
+
+        size += 4 + (long) handles.length*8;
+
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw"); FileChannel channel = file.getChannel()) {
+
+            file.setLength(size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            buffer.putInt(CHECKPOINT_MAGIC);
+            buffer.putInt(WORD | (compactTags ? COMPACT_FORMAT : 0));
+            buffer.putLong(memorySize);
+            buffer.putLong(tail);
+            buffer.putLong(mmapTop);
+
+            buffer.putInt(bins.length);
+            for (Bin bin : bins) {
+                buffer.putInt(bin.freeArea);
+                buffer.putLong(bin.HEAD);
+                buffer.putLong(bin.TAIL);
+            }
+            buffer.putLong(misc.HEAD);
+            buffer.putLong(misc.TAIL);
+
+            buffer.putInt(segments.size());
+            buffer.putInt(strings.size());
+
+            for (int i = 0; i < segments.size(); i++) {
+                buffer.putInt(kinds.get(i));
+                buffer.putLong(addresses.get(i));
+                buffer.putInt(lengths.get(i).intValue());
+                buffer.putInt(cellCounts[i]);
+            }
+
+            int string = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                Byte[][] chunks = segments.get(i);
+                for (int c = 0; c < chunks.length; c++) {
+                    if (chunks[c] == null) continue;
+                    long limit = Math.min(chunks[c].length, lengths.get(i) - (long) c*chunks[c].length);
+                    for (int k = 0; k < limit; k++) {
+                        Byte cell = chunks[c][k];
+                        if (cell == null) continue;
+                        buffer.putInt(c*chunks[c].length + k);
+                        if (cell instanceof FlaggedByte) {
+                            FlaggedByte flagged = (FlaggedByte) cell;
+                            buffer.put((byte) 'F').put((byte) flagged.flag).put((byte) flagged.type.ordinal()).put((byte) (flagged.prevInUse ? 1 : 0));
+                            buffer.putLong(flagged.length);
+                        } else if (cell instanceof PointerByte) {
+                            buffer.put((byte) 'P').put((byte) 0).put((byte) 0).put((byte) 0);
+                            buffer.putLong(((PointerByte) cell).pointer);
+                        } else {
+                            buffer.put((byte) 'D').put((byte) 0).put((byte) 0).put((byte) 0);
+                            buffer.putLong(string++);
+                        }
+                    }
+                }
+            }
+
+            for (byte[] utf : strings) {
+                buffer.putInt(utf.length);
+                buffer.put(utf);
+            }
+
+            buffer.putInt(payloads.size());
+            for (Map.Entry<Long, byte[]> entry : payloads.entrySet()) {
+                buffer.putLong(entry.getKey());
+                buffer.putInt(entry.getValue().length);
+                buffer.put(entry.getValue());
+            }
+
+            buffer.putInt(handles.length);
+            for (long handle : handles) buffer.putLong(handle);
+
+            buffer.force();
+        }
+    }
+
+    /*
+     * Replaces the current state with a checkpoint
+     * Open snapshots are detached, like on a reset
+     * A file that does not parse throws an IOException and leaves the heap as it was
+     */
+    public void restore(String path) throws IOException {
+
+        requireQuickFit("checkpoints");
+
+        CheckpointImage image;
+
+        try (RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel channel = file.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                image = new CheckpointImage(buffer, path);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt heap checkpoint: " + path, e);
+            }
+        }
+
+        memorySize = image.memorySize;
+        initializeMemory();
+
+        heapChunks = image.heapChunks;
+        committed = image.committed;
+        tail = image.tail;
+        mmapTop = image.mmapTop;
+        heapExtensions.addAll(image.extensions);
+        largeObjects.putAll(image.largeObjects);
+
+        boolean[] assigned = new boolean[quickLists.length];
+        for (long[] head : image.bins) assigned[(int) head[0]/(2*WORD)] = true;
+        assignQuickLists(assigned);
+        for (long[] head : image.bins) {
+            Bin bin = getBin((int) head[0]);
+            bin.HEAD = head[1];
+            bin.TAIL = head[2];
+        }
+        misc.HEAD = image.miscHead;
+        misc.TAIL = image.miscTail;
+
+        payloads.putAll(image.payloads);
+
+        handles = image.handles;
+        for (int handle = 0; handle < handles.length; handle++) {
+            if (handles[handle] != NULL) handleOf.put(handles[handle], handle);
+        }
+
+        // Allocation bitmaps are derived state, rebuilt from the LEN tags
+        new HeapWalk(this).stream(false).filter(block -> block.state == 'U').forEach(block -> {
+            if (block.address >= MMAP_BASE) mapped.set((block.address-MMAP_BASE)/PAGE);
+            else allocated.set(block.address+2*WORD);
+        });
+
+        refreshGUI();
+    }
+
+    // Parsed checkpoint, nothing of the live heap is touched while reading it
+    private class CheckpointImage {
+
+        long memorySize;
+        long tail;
+        long mmapTop;
+        long[][] bins;              // {size, HEAD, TAIL}
+        long miscHead;
+        long miscTail;
+        Byte[][] heapChunks;
+        long committed = NULL;
+        ArrayList<Byte[]> extensions = new ArrayList<>();
+        TreeMap<Long, Byte[]> largeObjects = new TreeMap<>();
+        HashMap<Long, byte[]> payloads = new HashMap<>();
+        long[] handles;
+
+        CheckpointImage(ByteBuffer buffer, String path) throws IOException {
+
+            if (buffer.getInt() != CHECKPOINT_MAGIC) throw new IOException("Not a heap checkpoint: " + path);
+            int format = buffer.getInt();
+            if ((format & ~COMPACT_FORMAT) != WORD) throw new IOException("Checkpoint word size does not match.");
+            if (((format & COMPACT_FORMAT) != 0) != compactTags) throw new IOException("Checkpoint tag format does not match.");
+
+            memorySize = buffer.getLong();
+            if (memorySize < 8*WORD || memorySize > Math.min(MAX_SEGMENT, MMAP_BASE) || memorySize % ALIGNMENT != 0) {
+                throw new IOException("Checkpoint main heap of " + memorySize + " bytes is not supported.");
+            }
+
+            tail = buffer.getLong();
+            mmapTop = buffer.getLong();
+
+            bins = new long[buffer.getInt()][];
+            for (int i = 0; i < bins.length; i++) {
+                bins[i] = new long[] { buffer.getInt(), buffer.getLong(), buffer.getLong() };
+                if (bins[i][0] <= 0 || bins[i][0] % (2*WORD) != 0 || bins[i][0]/(2*WORD) >= quickLists.length) {
+                    throw new IOException("Checkpoint bin of " + bins[i][0] + " bytes is not supported.");
+                }
+            }
+            miscHead = buffer.getLong();
+            miscTail = buffer.getLong();
+
+            int segmentCount = buffer.getInt();
+            int stringCount = buffer.getInt();
+
+            // Cells of each segment in chunks of @chunkSizes[i] cells
+            Byte[][][] segments = new Byte[segmentCount][][];
+            int[] chunkSizes = new int[segmentCount];
+            int[] lengths = new int[segmentCount];
+            int[] cellCounts = new int[segmentCount];
+
+            int chunkSize = chunkSize(memorySize);
+            heapChunks = new Byte[(int) ((memorySize + chunkSize-1) / chunkSize)][];
+
+            for (int i = 0; i < segmentCount; i++) {
+                int kind = buffer.getInt();
+                long address = buffer.getLong();
+                lengths[i] = buffer.getInt();
+                cellCounts[i] = buffer.getInt();
+                if (lengths[i] < 0 || kind < 0 || kind > 2) throw new IOException("Checkpoint segment " + i + " is not supported.");
+                if (kind == 0) {
+                    if (committed != NULL || lengths[i] > memorySize) throw new IOException("Checkpoint main heap does not match.");
+                    committed = lengths[i];
+                    segments[i] = heapChunks;       // Cells come from the checkpoint
+                    chunkSizes[i] = chunkSize;
+                } else {
+                    segments[i] = new Byte[][] { new Byte[lengths[i]] };
+                    chunkSizes[i] = Math.max(lengths[i], 1);
+                    if (kind == 1) extensions.add(segments[i][0]);
+                    else if (address >= MMAP_BASE) largeObjects.put(address, segments[i][0]);
+                    else throw new IOException("Checkpoint large object at " + integerToHex(address) + " is out of its area.");
+                }
+            }
+            if (committed == NULL || tail < 0 || tail >= committed) throw new IOException("Checkpoint main heap does not match.");
+
+            // Data cells are patched once the string table has been read
+            ArrayList<Byte[]> dataChunks = new ArrayList<>();
+            ArrayList<Integer> dataOffsets = new ArrayList<>();
+            ArrayList<Integer> dataStrings = new ArrayList<>();
+
+            for (int i = 0; i < segmentCount; i++) {
+                for (int c = 0; c < cellCounts[i]; c++) {
+                    int offset = buffer.getInt();
+                    byte kind = buffer.get();
+                    byte flag = buffer.get();
+                    byte type = buffer.get();
+                    byte prevInUse = buffer.get();
+                    long value = buffer.getLong();
+                    if (offset < 0 || offset >= lengths[i]) throw new IOException("Checkpoint cell at offset " + offset + " is out of its segment.");
+                    int index = offset / chunkSizes[i];
+                    if (segments[i][index] == null) segments[i][index] = new Byte[chunkSizes[i]];
+                    Byte[] chunk = segments[i][index];
+                    if (kind == 'F') {
+                        chunk[offset % chunkSizes[i]] = new FlaggedByte((char) flag, (int) value, LengthType.values()[type], prevInUse == 1);
+                    } else if (kind == 'P') {
+                        chunk[offset % chunkSizes[i]] = new PointerByte(value);
+                    } else if (kind == 'D') {
+                        dataChunks.add(chunk);
+                        dataOffsets.add(offset % chunkSizes[i]);
+                        dataStrings.add((int) value);
+                    } else {
+                        throw new IOException("Checkpoint cell kind " + kind + " is not supported.");
+                    }
+                }
+            }
+
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                byte[] utf = new byte[buffer.getInt()];
+                buffer.get(utf);
+                strings[i] = new String(utf, StandardCharsets.UTF_8);
+            }
+            for (int i = 0; i < dataChunks.size(); i++) {
+                dataChunks.get(i)[dataOffsets.get(i)] = new DataByte(strings[dataStrings.get(i)]);
+            }
+
+            int payloadCount = buffer.getInt();
+            for (int i = 0; i < payloadCount; i++) {
+                long ptr = buffer.getLong();
+                byte[] payload = new byte[buffer.getInt()];
+                buffer.get(payload);
+                payloads.put(ptr, payload);
+            }
+
+            handles = new long[buffer.getInt()];
+            if (handles.length == 0) throw new IOException("Checkpoint handle table is empty.");
+            for (int i = 0; i < handles.length; i++) handles[i] = buffer.getLong();
+        }
+    }
+
+    public int allocHandle(int size) {
+
+        requireQuickFit("handles");
+
+        long ptr = malloc(size);
+        if (ptr == NULL) return NULL;
+
+        int handle;
+        if (!freeHandles.isEmpty()) {
+            handle = freeHandles.removeFirst();
+        } else {
+            handle = 0;
+            while (handle < handles.length && handles[handle] != NULL) handle++;
+            if (handle == handles.length) {
+                long[] grown = Arrays.copyOf(handles, handles.length*2);
+                Arrays.fill(grown, handles.length, grown.length, NULL);
+                handles = grown;
+            }
+        }
+
+        handles[handle] = ptr;
+        handleOf.put(ptr, handle);
+
+        return handle;
+    }
+
+    // Current pointer behind @handle, only valid until the next compaction
+    public long resolve(int handle) {
+        if (handle < 0 || handle >= handles.length) return NULL;
+        return handles[handle];
+    }
+
+    public void freeHandle(int handle) {
+
+        long ptr = resolve(handle);
+
+        if (ptr == NULL) {
+            log("Invalid handle ... Exception triggered in thread. Exiting.\n\n");
+            return;
+        }
+
+        handleOf.remove(ptr);
+        handles[handle] = NULL;
+        freeHandles.addFirst(handle);
+
+        free(ptr);
+    }
+
+    /*
+     * Sliding compaction of the main heap (extensions are left alone)
+     * Movable blocks slide down towards the heap start, free blocks are absorbed on the way
+     * A pinned block closes the gap before it as a listed free block
+     * Reaching the tail merges the remaining gap into it
+     * Runs at most @steps blocks, the heap is consistent after every call
+     * Returns true once a pass over the whole heap has finished
+     */
+    public boolean compact(int steps) {
+
+        requireQuickFit("compaction");
+        if (compactTags) throw new UnsupportedOperationException("Compaction needs the footer of every block, compact tags are on.");
+
+        long end = committed-2*WORD;
+
+        // A cursor that is no longer a block start (merged away since the last step) starts the pass over
+        Byte cursorTag = getByte(compactCursor+WORD);
+        if (!(cursorTag instanceof FlaggedByte) || ((FlaggedByte) cursorTag).type != LengthType.LEN) compactCursor = 0;
+
+        long current = compactCursor;
+        long dest = compactCursor;
+
+        while (steps-- > 0 && current != end && current != tail) {
+
+            FlaggedByte header = (FlaggedByte) getByte(current+WORD);
+            int length = header.length;
+
+            if (header.flag == 'F') {
+                getListOrigin(length).removeFromList(current);
+            } else if (handleOf.containsKey(current+2*WORD)) {
+                moveBlock(current, dest, length);
+                dest += length;
+            } else {
+                if (dest != current) closeGap(dest, (int) (current-dest));
+                dest = current+length;
+            }
+
+            current += length;
+        }
+
+        if (current == end || current == tail) {
+            closeTail(dest);
+            compactCursor = 0;
+            return true;
+        }
+
+        if (dest != current) closeGap(dest, (int) (current-dest));
+        compactCursor = dest;
+        return false;
+    }
+
+    /*
+     * Caps the heap at @bytes (committed main heap, extensions and large objects), 0 removes the limit
+     * At the limit malloc runs the reclaim callbacks and waits up to @timeoutMillis for frees before returning NULL
+     */
+    public void setHeapLimit(long bytes, long timeoutMillis) {
+        this.heapLimit = bytes;
+        this.limitTimeout = timeoutMillis;
+    }
+
+    public long getHeapLimit() {
+        return heapLimit;
+    }
+
+    // Called at the heap limit, before waiting, to free cached blocks
+    public void addReclaimer(Reclaimer reclaimer) {
+        requireQuickFit("reclaim callbacks");
+        reclaimers.add(reclaimer);
+    }
+
+    public void removeReclaimer(Reclaimer reclaimer) {
+        reclaimers.remove(reclaimer);
+    }
+
+    /*
+     * Reserves the whole main heap but commits it @chunk bytes (a power of two) at a time as the tail advances
+     * 0 commits the whole main heap up front, the heap is reset either way
+     */
+    public void setLazyCommit(int chunk) {
+        if (chunk != 0) requireQuickFit("lazy commit");
+        if (chunk != 0 && (chunk < 8*WORD || Integer.bitCount(chunk) != 1)) {
+            throw new IllegalArgumentException("Commit chunk must be a power of two of at least " + 8*WORD + " bytes.");
+        }
+        this.commitChunk = chunk;
+        initializeMemory();
+        refreshGUI();
+    }
+
+    /*
+     * Number of fixed quick lists, bins of 1 to @count DWORDs (16 by default)
+     * The heap is reset, the bins are created with it
+     */
+    public void setQuickLists(int count) {
+        requireQuickFit("quick lists");
+        int limit = maxAdaptiveSize/(2*WORD) - 1;
+        if (count < minQL || count > limit) {
+            throw new IllegalArgumentException("Quick list count must be between " + minQL + " and " + limit + ".");
+        }
+        this.maxQL = count;
+        initializeMemory();
+        refreshGUI();
+    }
+
+    public int getQuickLists() {
+        return maxQL;
+    }
+
+    public void setGrowth(Growth growth) {
+        this.growth = growth;
+    }
+
+    public Growth getGrowth() {
+        return growth;
+    }
+
+    /*
+     * Switches between the classic and the compact (footer-less allocated blocks) tag format
+     * The heap is reset, the format of a heap never changes under it
+     */
+    // Compaction needs the footer of every block, so the two modes never run together
+    public void setCompactTags(boolean compactTags) {
+        if (compactTags) requireQuickFit("compact tags");
+        if (compactTags && compacting) throw new UnsupportedOperationException("Compact tags drop the footers compaction needs, compacting is on.");
+        this.compactTags = compactTags;
+        initializeMemory();
+        refreshGUI();
+    }
+
+    public boolean isCompactTags() {
+        return compactTags;
+    }
+
+    /*
+     * Samples about one malloc per @interval allocated bytes with the caller stack, see AllocProfiler
+     * 0 turns profiling off
+     */
+    public void setProfiling(long interval) {
+        if (interval > 0) requireQuickFit("profiling");
+        profiler = interval > 0 ? new AllocProfiler(interval) : null;
+    }
+
+    public void setProfiler(AllocProfiler profiler) {
+        if (profiler != null) requireQuickFit("profiling");
+        this.profiler = profiler;
+    }
+
+    public AllocProfiler getProfiler() {
+        return profiler;
+    }
+
+    /*
+     * Emits the AllocEvents to the JDK Flight Recorder, which still has to be recording (e.g. -XX:StartFlightRecording)
+     * false (the default) leaves a single field check on every operation
+     */
+    public void setFlightRecorder(boolean flightRecorder) {
+        if (flightRecorder) requireQuickFit("flight recorder events");
+        if (flightRecorder && statisticsHook == null) statisticsHook = AllocEvents.periodic(this);
+        if (!flightRecorder && statisticsHook != null) {
+            AllocEvents.remove(statisticsHook);
+            statisticsHook = null;
+        }
+        this.flightRecorder = flightRecorder;
+    }
+
+    public boolean isFlightRecorder() {
+        return flightRecorder;
+    }
+
+    // Coalesce event around @pass, its merges counted through @merges
+    private void recordCoalesce(Runnable pass, boolean parallel) {
+
+        AllocEvents.Coalesce event = new AllocEvents.Coalesce();
+        event.begin();
+
+        long before = merges;
+        pass.run();
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.merged = merges - before;
+            event.parallel = parallel;
+            event.commit();
+        }
+    }
+
+    /*
+     * Periodic heap statistics and bin occupancy, called by the recorder's thread
+     * Walks are capped at the number of blocks the heap can hold, so a caller that does not synchronize
+     * on the instance can at worst cost a sample, which is dropped
+     */
+    synchronized void recordStatistics() {
+
+        AllocEvents.HeapStatistics statistics = new AllocEvents.HeapStatistics();
+        if (!statistics.isEnabled()) return;
+
+        String name = name() + "@" + Integer.toHexString(System.identityHashCode(this));
+        long footprint = footprint();
+        long maxBlocks = footprint / (4*WORD);
+
+        try {
+            ArrayList<AllocEvents.BinOccupancy> occupancy = new ArrayList<>();
+
+            for (Bin bin : bins) {
+                int blocks = 0;
+                for (long current = bin.HEAD; current != NULL && blocks <= maxBlocks; current = ((PointerByte) getByte(current+3*WORD)).pointer) blocks++;
+                if (blocks > maxBlocks) return;
+                if (blocks == 0) continue;
+                AllocEvents.BinOccupancy event = new AllocEvents.BinOccupancy();
+                event.allocator = name;
+                event.size = bin.freeArea;
+                event.blocks = blocks;
+                occupancy.add(event);
+                statistics.binBlocks += blocks;
+            }
+
+            for (long current = misc.HEAD; current != NULL && statistics.miscBlocks <= maxBlocks; current = ((PointerByte) getByte(current+3*WORD)).pointer) {
+                statistics.miscBlocks++;
+                statistics.miscBytes += ((FlaggedByte) getByte(current+WORD)).length;
+            }
+
+            if (statistics.miscBlocks > maxBlocks) return;
+
+            statistics.tail = tail != NULL ? ((FlaggedByte) getByte(tail+WORD)).length : 0;
+
+            for (AllocEvents.BinOccupancy event : occupancy) event.commit();
+
+        } catch (RuntimeException e) {
+            return;
+        }
+
+        statistics.allocator = name;
+        statistics.committed = committed;
+        statistics.footprint = footprint;
+        statistics.commit();
+    }
+
+    // Bin misses carve up to @maxBatch blocks from the tail at once (0 or 1 disables)
+    public void setBinRefill(int maxBatch) {
+        if (maxBatch > 1) requireQuickFit("bin refill");
+        this.maxRefill = maxBatch;
+    }
+
+    public void setParallelCoalesce(boolean parallelCoalesce) {
+        if (parallelCoalesce) requireQuickFit("parallel coalescing");
+        this.parallelCoalesce = parallelCoalesce;
+    }
+
+    public void setCompacting(boolean compacting) {
+        if (compacting) requireQuickFit("compaction");
+        if (compacting && compactTags) throw new UnsupportedOperationException("Compaction needs the footer of every block, compact tags are on.");
+        this.compacting = compacting;
+    }
+
+    private void moveBlock(long from, long to, int length) {
+
+        if (from == to) return;
+
+        // Moving down, a forward copy never overwrites cells it still has to read
+        for (int i = 2*WORD; i < length; i++) setByte(to+i, getByte(from+i));
+
+        setByte(to+WORD, new FlaggedByte('U', length, LengthType.LEN));
+        setByte(to+length, new FlaggedByte('U', length, LengthType.PLEN));
+
+        byte[] payload = payloads.remove(from+2*WORD);
+        if (payload != null) payloads.put(to+2*WORD, payload);
+
+        int handle = handleOf.remove(from+2*WORD);
+        handles[handle] = to+2*WORD;
+        handleOf.put(to+2*WORD, handle);
+
+        allocated.clear(from+2*WORD);
+        allocated.set(to+2*WORD);
+
+        if (profiler != null) profiler.moved(from+2*WORD, to+2*WORD);
+
+        refreshGUI(to, length, 'U');
+    }
+
+    // Turns the @length bytes at @gap into a listed free block
+    private void closeGap(long gap, int length) {
+
+        for (long i = gap+2*WORD; i < gap+length; i++) setByte(i, null);
+
+        setByte(gap+WORD, new FlaggedByte('F', length, LengthType.LEN));
+        setByte(gap+length, new FlaggedByte('F', length, LengthType.PLEN));
+
+        getListOrigin(length).addToList(gap);
+
+        refreshGUI(gap, length, 'F');
+    }
+
+    // Everything from @gap to the end of the main heap becomes the tail
+    private void closeTail(long gap) {
+
+        long end = committed-2*WORD;
+
+        tail = gap;
+
+        if (gap == end) return;
+
+        for (long i = gap+2*WORD; i < end; i++) setByte(i, null);
+
+        setByte(gap+WORD, new FlaggedByte('F', (int) (end-gap), LengthType.LEN));
+        setByte(gap+2*WORD, new PointerByte(NULL));
+        setByte(gap+3*WORD, new PointerByte(NULL));
+        setByte(end, new FlaggedByte('F', (int) (end-gap), LengthType.PLEN));
+
+        refreshGUI(gap, (int) (end-gap), 'F');
+    }
+
+    /*
+     * Opens a region nested in the innermost open one
+     * Chunks of @chunkSize bytes are requested lazily, larger allocations get a chunk of their own size
+     */
+    public Region openRegion(int chunkSize) {
+        requireQuickFit("regions");
+        Region region = new Region(regions.peekLast(), chunkSize);
+        regions.addLast(region);
+        return region;
+    }
+
+    public Region openRegion() {
+        return openRegion(REGION_CHUNK);
+    }
+
+    // Closes the innermost open region
+    public void closeRegion() {
+        if (regions.isEmpty()) {
+            log("No open region ... Exception triggered in thread. Exiting.\n\n");
+            return;
+        }
+        regions.peekLast().close();
+    }
+
+    public int getOpenRegions() {
+        return regions.size();
+    }
+
+    // Running tests
+    public void print() {
+        test1();
+        test2();
+        test3();
+        test4();
+        test5();
+        test6();
+        test7();
+        test8();
+        test9();
+        test10();
+        test11();
+        test12();
+        test13();
+        test14();
+        test15();
+        test16();
+        test17();
+        test18();
+        test19();
+        test20();
+        test21();
+        test22();
+        test23();
+        test24();
+        test25();
+        test26();
+        test27();
+        test28();
+        test29();
+        test30();
+        test31();
+        test32();
+        test33();
+        test34();
+        test35();
+    }
+
+    public long checkBins(int size) {
+        
+        // Checking if the memory requested corresponds to a predefined size
+        Bin bin = getBin(size);
+        if (bin != null && bin.HEAD != NULL) return bin.HEAD;
+        return NULL;
+    }
+
+    public long checkTail(int size, long freeblock) {
+
+        // Reserved memory is committed before falling back to misc
+        if (!tailFits(size)) commit(size);
+
+        return tailFits(size) ? tail : NULL;
+    }
+
+    private boolean tailFits(int size) {
+
+        // If the tail is pointing to the end
+        if (tail == committed-2*WORD) return false;
+
+        // Calculating remaining memory after hypothetical tail allocation
+        int tailRemainingSize = ((FlaggedByte) getByte(tail+WORD)).length - size;
+
+        /*
+         * Accepting only if block fits perfectly
+         * Or if there is enough space to build a new free block (at least 4 words for metadata)
+         * Avoids unreachable memory
+         */
+        return tailRemainingSize == 0 || tailRemainingSize >= 4*WORD;
+    }
+
+    /*
+     * Commits enough reserved memory for a @size byte block from the tail, up to the reservation
+     * Only the committed boundary moves: the end sentinel moves up and the tail grows over the new cells,
+     * an exhausted tail starts over as a free block at the old end
+     * No cell is copied, the chunks under the new cells are created by the first tags written to them
+     * Open snapshots keep their own committed size, they never see past it
+     * Returns false if nothing is left to commit
+     */
+    private boolean commit(int size) {
+
+        if (commitChunk == 0 || committed == memorySize) return false;
+
+        long end = committed-2*WORD;
+
+        long target = Math.max(tail + 2*WORD + size + 4*WORD, committed + commitChunk);
+        long grown = Math.min((target + commitChunk-1) / commitChunk * commitChunk, memorySize);
+
+        // Committing counts against the heap limit like any growth
+        if (heapLimit > 0) grown = Math.min(grown, committed + Math.max(0, heapLimit - footprint()) / ALIGNMENT * ALIGNMENT);
+        if (grown - committed < 4*WORD) return false;
+
+        FlaggedByte sentinel = (FlaggedByte) getByte(committed-WORD);
+
+        long previous = committed;
+        committed = grown;
+
+        if (visualize != null) visualize.segmentGrown(0, (int) grown);
+
+        int length = (int) (grown-2*WORD-tail);
+
+        if (tail == end) {
+            // The new tail's PLEN is the last block's footer, its LEN takes the place of the old sentinel
+            setByte(tail+WORD, new FlaggedByte('F', length, LengthType.LEN, sentinel.prevInUse));
+            setByte(tail+2*WORD, new PointerByte(NULL));
+            setByte(tail+3*WORD, new PointerByte(NULL));
+        } else {
+            ((FlaggedByte) writeByte(tail+WORD)).length = length;
+            setByte(end, null);
+            setByte(end+WORD, null);
+        }
+
+        setByte(grown-2*WORD, new FlaggedByte('F', length, LengthType.PLEN));
+        setByte(grown-WORD, new FlaggedByte('U', 0, LengthType.LEN, false));
+
+        log("\nCommitted " + (grown-previous) + " bytes of the reserved heap ... ");
+
+        refreshGUI(tail, length, 'F');
+
+        return true;
+    }
+
+    // First Fit
+    public long checkMisc(int size) {
+
+        if (misc.HEAD == NULL) return NULL;         // Checking if misc is empty
+        
+        long current = misc.HEAD;                    // Current free block
+
+        do {
+            int remainingSize = ((FlaggedByte) getByte(current+WORD)).length - size; // Calculating hypothetical remaining size
+            /*
+             * Accepting only if block fits perfectly
+             * Or if there is enough space to build a new free block (at least 4 words for metadata)
+             * Avoids unreachable memory
+             */
+            if (remainingSize == 0 || remainingSize >= 4*WORD) return current;
+            current = ((PointerByte) getByte(current+3*WORD)).pointer;   // Iterating to next free block in list
+        } while (current != NULL);
+
+        return NULL;
+    }
+
+    public void allocateSpace(int size, long freeblock, boolean binAlloc) {
+
+        if (binAlloc) {
+            // Double check if the byte at the other end is flagged
+            if (! (getByte(freeblock+size) instanceof FlaggedByte)) {
+                throw new MemoryError("Byte at " + (freeblock+size) + "should be flagged");
+            } else {
+
+                getListOrigin(size).removeFromList(freeblock);
+
+                setHeader(freeblock, 'U', size);
+                
+                if (compactTags) {
+                    // The footer word becomes payload
+                    setByte(freeblock+size, null);
+                    setNextPrevInUse(freeblock, size, true);
+                } else {
+                    ((FlaggedByte) writeByte(freeblock+size)).flag = 'U';
+                }
+
+                allocated.set(freeblock+2*WORD);
+
+                refreshGUI(freeblock, size, 'U');
+                return;
+            }
+        } else {
+
+            int blockSize = ((FlaggedByte) getByte(freeblock+WORD)).length;
+
+            setHeader(freeblock, 'U', size);
+
+            setByte(freeblock+size, compactTags ? null : new FlaggedByte('U', size, LengthType.PLEN));
+
+            if (freeblock != tail) misc.removeFromList(freeblock);  // If it is a misc allocation, we remove the freeblock from the list
+                
+            // if it is not a perfect fit, create a new free block
+            if (blockSize != size) {
+                setByte(freeblock+size+WORD, new FlaggedByte('F', blockSize-size, LengthType.LEN, true));
+                ((FlaggedByte) writeByte(freeblock+blockSize)).length = blockSize - size;
 
                 // If it was a tail allocation
                 if (freeblock == tail){
@@ -350,22 +1733,196 @@ public class MemoryMgmt {
                 }
             } else {
                 if (freeblock == tail) tail = freeblock+size;
+                setNextPrevInUse(freeblock, size, true);
+            }
+
+            allocated.set(freeblock+2*WORD);
+
+            refreshGUI(freeblock, size, 'U');
+            if (blockSize != size) refreshGUI(freeblock+size, blockSize-size, 'F');
+        }
+    }
+
+    /*
+     * Carves up to @bin.batch blocks of the bin's size from the tail, one boundary-tag pass over the run
+     * The first block is allocated, the others are linked into the empty bin in address order
+     * The batch doubles when the bin served a whole batch worth of hits since its last refill
+     * (misses are rare compared to hits) and halves otherwise, e.g. when coalescing swallowed the refill
+     * Returns the allocated block, NULL if the tail cannot hold at least two blocks
+     */
+    private long refillBin(Bin bin) {
+
+        int size = bin.freeArea;
+
+        if (tail == committed-2*WORD && !commit(bin.batch*size)) return NULL;
+
+        if (bin.refills > 0) {
+            if (bin.hits - bin.hitsAtRefill >= bin.batch-1) bin.batch = Math.min(2*bin.batch, maxRefill);
+            else bin.batch = Math.max(2, bin.batch/2);
+        }
+
+        // Reserved memory is committed for the whole batch
+        if (((FlaggedByte) getByte(tail+WORD)).length < bin.batch*size) commit(bin.batch*size);
+
+        int tailSize = ((FlaggedByte) getByte(tail+WORD)).length;
+
+        // Whatever is left of the tail must still be empty or a valid free block
+        int count = Math.min(bin.batch, tailSize/size);
+        while (count > 1 && tailSize-count*size != 0 && tailSize-count*size < 4*WORD) count--;
+
+        if (count < 2) return NULL;
+
+        long block = tail;
+
+        for (int i = 0; i < count; i++) {
+            long current = block + (long) i*size;
+            if (i == 0) {
+                setHeader(block, 'U', size);
+                setByte(block+size, compactTags ? null : new FlaggedByte('U', size, LengthType.PLEN));
+            } else {
+                setByte(current+WORD, new FlaggedByte('F', size, LengthType.LEN, i == 1));
+                setByte(current+size, new FlaggedByte('F', size, LengthType.PLEN));
             }
         }
 
-        refreshGUI();
+        // Clearing out list pointers of the allocated block
+        setByte(block+2*WORD, null);
+        setByte(block+3*WORD, null);
+
+        // The rest is linked up directly, no addToList per block
+        for (int i = 1; i < count; i++) {
+            long current = block + (long) i*size;
+            setByte(current+2*WORD, new PointerByte(i == 1 ? NULL : current-size));
+            setByte(current+3*WORD, new PointerByte(i == count-1 ? NULL : current+size));
+        }
+
+        bin.HEAD = block+size;
+        bin.TAIL = block + (long) (count-1)*size;
+
+        tail = block + (long) count*size;
+
+        int remainingSize = tailSize - count*size;
+
+        if (remainingSize > 0) {
+            setByte(tail+WORD, new FlaggedByte('F', remainingSize, LengthType.LEN, false));
+            setByte(tail+2*WORD, new PointerByte(NULL));
+            setByte(tail+3*WORD, new PointerByte(NULL));
+            ((FlaggedByte) writeByte(block+tailSize)).length = remainingSize;
+        }
+
+        allocated.set(block+2*WORD);
+
+        bin.refills++;
+        bin.hitsAtRefill = bin.hits;
+
+        refreshGUI(block, size, 'U');
+        for (int i = 1; i < count; i++) refreshGUI(block + (long) i*size, size, 'F');
+        if (remainingSize > 0) refreshGUI(tail, remainingSize, 'F');
+
+        return block;
     }
 
     public FreeList getListOrigin(int blockSize) {
-        if (blockSize >= (bins[0].freeArea) && blockSize % (2*WORD) == 0) {
-            
-            int index = (blockSize/(2*WORD)) - 2;
+        Bin bin = getBin(blockSize);
+        if (bin != null) return bin;
+        return misc;
+    }
 
-            if (!(index > maxQL-1)) {  
-                return bins[index];
-            } 
+    // Quick list holding blocks of exactly @blockSize bytes, if any
+    public Bin getBin(int blockSize) {
+        if (blockSize % (2*WORD) != 0) return null;
+        int index = blockSize/(2*WORD);
+        if (index >= quickLists.length) return null;
+        return quickLists[index];
+    }
+
+    /*
+     * Records a request in the size histogram
+     * Reassigns the quick lists every @adaptInterval samples
+     */
+    // Only sizes a quick list can serve are counted (see getBin), the interval still counts every request
+    private void sampleSize(int size) {
+        int index = size/(2*WORD);
+        if (size % (2*WORD) == 0 && index < sizeHistogram.length) sizeHistogram[index]++;
+        if (++samples % adaptInterval == 0) adaptQuickLists();
+    }
+
+    // Picks the @maxQL most frequent sizes (ties go to the smaller size) and decays the histogram
+    public void adaptQuickLists() {
+
+        int count = 0;
+
+        boolean[] taken = new boolean[sizeHistogram.length];
+
+        while (count < maxQL) {
+            int best = -1;
+            for (int i = 2; i < sizeHistogram.length; i++) {
+                if (taken[i] || sizeHistogram[i] == 0) continue;
+                if (best == -1 || sizeHistogram[i] > sizeHistogram[best]) best = i;
+            }
+            if (best == -1) break;
+            taken[best] = true;
+            count++;
         }
-        return misc;
+
+        // Sizes never requested keep their current lists
+        for (Bin bin : bins) {
+            if (count == maxQL) break;
+            int index = bin.freeArea/(2*WORD);
+            if (!taken[index]) {
+                taken[index] = true;
+                count++;
+            }
+        }
+
+        for (int i = 0; i < sizeHistogram.length; i++) sizeHistogram[i] /= 2;
+
+        assignQuickLists(taken);
+    }
+
+    /*
+     * Reassigns the quick lists to the sizes flagged in @assigned (indexed by size/DWORD)
+     * Blocks in retired lists migrate to misc
+     * Blocks in misc matching a newly created list migrate to it
+     */
+    private void assignQuickLists(boolean[] assigned) {
+
+        boolean created = false;
+
+        for (int i = 0; i < quickLists.length; i++) {
+            Bin bin = quickLists[i];
+            if (bin != null && !assigned[i]) {
+                while (bin.HEAD != NULL) {
+                    long freeblock = bin.HEAD;
+                    bin.removeFromList(freeblock);
+                    misc.addToList(freeblock);
+                }
+                quickLists[i] = null;
+            } else if (bin == null && assigned[i]) {
+                quickLists[i] = new Bin(NULL, NULL, i-1);
+                created = true;
+            }
+        }
+
+        if (created) {
+            long current = misc.HEAD;
+            while (current != NULL) {
+                long next = ((PointerByte) getByte(current+3*WORD)).pointer;
+                Bin bin = getBin(((FlaggedByte) getByte(current+WORD)).length);
+                if (bin != null) {
+                    misc.removeFromList(current);
+                    bin.addToList(current);
+                }
+                current = next;
+            }
+        }
+
+        int active = 0;
+        for (Bin bin : quickLists) if (bin != null) active++;
+
+        bins = new Bin[active];
+        active = 0;
+        for (Bin bin : quickLists) if (bin != null) bins[active++] = bin;
     }
 
     /*
@@ -374,40 +1931,260 @@ public class MemoryMgmt {
      * Coalesce all possible freeblocks
      */
     public void coalescePass() {
+        requireQuickFit("deferred coalescing");
+        if (flightRecorder) recordCoalesce(this::coalesceLists, false);
+        else coalesceLists();
+    }
 
-        // Check if tail can be coalesced *propagating coalescing*
-        while (tail != memorySize-2*WORD && ((FlaggedByte) heap[tail]).flag == 'F') mergeAndDistribute(tail);
+    private void coalesceLists() {
 
-        // Misc search
-        int current = misc.HEAD;  
+        boolean merged;
+
+        // Merges move block starts, an incremental compaction starts over afterwards
+        compactCursor = 0;
+
+        // Merged blocks may land in misc or in a bin searched earlier, so passes repeat until one merges nothing
+        do {
+
+            // Check if tail can be coalesced *propagating coalescing*
+            while (tail != committed-2*WORD && previousFree(tail)) mergeAndDistribute(tail);
+
+            // Misc search
+            long current = misc.HEAD;  
 
-        if (current != NULL) {
-            do {
-                if (((FlaggedByte) getByte(current)).flag == 'F') {
-                    mergeAndDistribute(current);
-                    // Restart search due to new potential coalescing
-                    current = misc.HEAD;
-                    continue;
-                }
-                current = ((PointerByte)getByte(current+3*WORD)).pointer;   // Iterating to next free block in list
-            } while (current != NULL);
-        }
-        
-        // Bin search
-        for (Bin bin : bins) {
-            current = bin.HEAD;
             if (current != NULL) {
                 do {
-                    if (((FlaggedByte) getByte(current)).flag == 'F') {
+                    if (previousFree(current)) {
                         mergeAndDistribute(current);
                         // Restart search due to new potential coalescing
-                        current = bin.HEAD;
+                        current = misc.HEAD;
                         continue;
                     }
-                    current = ((PointerByte) getByte(current+3*WORD)).pointer;   // Iterating to next free block in list
+                    current = ((PointerByte)getByte(current+3*WORD)).pointer;   // Iterating to next free block in list
                 } while (current != NULL);
             }
-        } 
+            
+            // Bin search
+            merged = false;
+
+            for (Bin bin : bins) {
+                current = bin.HEAD;
+                if (current != NULL) {
+                    do {
+                        if (previousFree(current)) {
+                            mergeAndDistribute(current);
+                            merged = true;
+                            // Restart search due to new potential coalescing
+                            current = bin.HEAD;
+                            continue;
+                        }
+                        current = ((PointerByte) getByte(current+3*WORD)).pointer;   // Iterating to next free block in list
+                    } while (current != NULL);
+                }
+            } 
+
+        } while (merged);
+    }
+
+    /*
+     * Fork/join coalescing
+     * 1. Every segment (and every half of a large one) merges its runs of adjacent free blocks in place
+     * 2. The runs are reconciled on the calling thread: bins and misc are rebuilt, a run ending in the tail becomes the tail
+     * Falls back to the sequential pass while snapshots are open (the write barrier is single threaded)
+     */
+    public void parallelCoalescePass() {
+        requireQuickFit("deferred coalescing");
+        if (flightRecorder) recordCoalesce(this::coalesceSegments, !snapshotting);
+        else coalesceSegments();
+    }
+
+    private void coalesceSegments() {
+
+        if (snapshotting) {
+            coalesceLists();
+            return;
+        }
+
+        compactCursor = 0;
+
+        ArrayList<CoalesceTask> tasks = new ArrayList<>();
+
+        tasks.add(new CoalesceTask(null, 0, 0, (int) committed));
+
+        long base = memorySize;
+        for (Byte[] extension : heapExtensions) {
+            tasks.add(new CoalesceTask(extension, base, 0, extension.length));
+            base += extension.length;
+        }
+
+        ForkJoinPool.commonPool().invoke(new RecursiveTask<Void>() {
+            protected Void compute() {
+                invokeAll(tasks);
+                return null;
+            }
+        });
+
+        for (Bin bin : bins) {
+            bin.HEAD = NULL;
+            bin.TAIL = NULL;
+        }
+        misc.HEAD = NULL;
+        misc.TAIL = NULL;
+
+        for (CoalesceTask task : tasks) {
+            for (long[] run : task.join()) {
+                merges += run[3];
+                if (run[2] == 1) {
+                    tail = run[0];
+                    setByte(tail+2*WORD, new PointerByte(NULL));
+                    setByte(tail+3*WORD, new PointerByte(NULL));
+                } else {
+                    getListOrigin((int) run[1]).addToList(run[0]);
+                }
+            }
+        }
+    }
+
+    /*
+     * Coalesces the blocks of @segment starting in [@from, @to), @from being a block start
+     * A null @segment is the main heap, read through its chunks; the pass only writes to chunks that already hold tags,
+     * so no chunk is ever created concurrently
+     * Returns every free block left afterwards as {address, length, holds the tail, blocks merged into it}
+     */
+    private class CoalesceTask extends RecursiveTask<ArrayList<long[]>> {
+
+        private static final long serialVersionUID = 1L;
+
+        Byte[] segment;
+        long base;
+        int from;
+        int to;
+
+        CoalesceTask(Byte[] segment, long base, int from, int to) {
+            this.segment = segment;
+            this.base = base;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected ArrayList<long[]> compute() {
+
+            if (to - from > COALESCE_SPLIT) {
+                int split = allocatedBoundary(from + (to-from)/2);
+                if (split != NULL) {
+                    CoalesceTask left = new CoalesceTask(segment, base, from, split);
+                    CoalesceTask right = new CoalesceTask(segment, base, split, to);
+                    left.fork();
+                    ArrayList<long[]> runs = right.compute();
+                    runs.addAll(0, left.join());
+                    return runs;
+                }
+            }
+
+            ArrayList<long[]> runs = new ArrayList<>();
+
+            int runStart = NULL;
+            int runLength = 0;
+            int runMerged = 0;
+            boolean runTail = false;
+
+            int current = from;
+
+            while (current < to) {
+
+                FlaggedByte header = (FlaggedByte) cell(current+WORD);
+                if (header.length == 0) break;              // End sentinel
+
+                if (header.flag == 'F') {
+                    if (runStart == NULL) {
+                        runStart = current;
+                        runLength = 0;
+                        runMerged = 0;
+                        runTail = false;
+                    } else {
+                        runMerged++;
+                        // Interior tags and list pointers go away
+                        setCell(current, null);
+                        setCell(current+WORD, null);
+                        setCell(current+2*WORD, null);
+                        setCell(current+3*WORD, null);
+                    }
+                    runTail |= base+current == tail;
+                    runLength += header.length;
+                } else if (runStart != NULL) {
+                    runs.add(closeRun(runStart, runLength, runMerged, runTail));
+                    runStart = NULL;
+                }
+
+                current += header.length;
+            }
+
+            if (runStart != NULL) runs.add(closeRun(runStart, runLength, runMerged, runTail));
+
+            return runs;
+        }
+
+        private long[] closeRun(int start, int length, int merged, boolean holdsTail) {
+
+            FlaggedByte header = (FlaggedByte) cell(start+WORD);
+
+            if (header.length != length) {
+                setCell(start+WORD, new FlaggedByte('F', length, LengthType.LEN, header.prevInUse));
+                setCell(start+length, new FlaggedByte('F', length, LengthType.PLEN));
+                refreshGUI(base+start, length, 'F');
+            }
+
+            return new long[] { base+start, length, holdsTail ? 1 : 0, merged };
+        }
+
+        /*
+         * First allocated block starting at or after @address
+         * Verified through its PLEN tag, its LEN tag and a PLEN footer of the same length
+         */
+        private int allocatedBoundary(int address) {
+            // Allocated blocks carry no footer to verify against
+            if (compactTags) return NULL;
+            for (int p = address; p + 2*WORD <= to; p++) {
+                if (!(cell(p) instanceof FlaggedByte) || !(cell(p+WORD) instanceof FlaggedByte)) continue;
+                FlaggedByte plen = (FlaggedByte) cell(p);
+                FlaggedByte len = (FlaggedByte) cell(p+WORD);
+                if (plen.type != LengthType.PLEN || len.type != LengthType.LEN || len.flag != 'U' || len.length == 0) continue;
+                if (p + len.length >= length() || !(cell(p+len.length) instanceof FlaggedByte)) continue;
+                FlaggedByte footer = (FlaggedByte) cell(p+len.length);
+                if (footer.type == LengthType.PLEN && footer.length == len.length) return p;
+            }
+            return NULL;
+        }
+
+        private int length() {
+            return segment == null ? (int) committed : segment.length;
+        }
+
+        private Byte cell(int offset) {
+            return segment == null ? heapCell(offset) : segment[offset];
+        }
+
+        private void setCell(int offset, Byte cell) {
+            if (segment == null) setHeapCell(offset, cell);
+            else segment[offset] = cell;
+        }
+    }
+
+    // True if the block before @block is free, from its PLEN footer or, with compact tags, our prevInUse bit
+    private boolean previousFree(long block) {
+        if (compactTags) return !((FlaggedByte) getByte(block+WORD)).prevInUse;
+        return ((FlaggedByte) getByte(block)).flag == 'F';
+    }
+
+    // New LEN tag for @block, keeping the prevInUse bit of the tag it replaces
+    private void setHeader(long block, char flag, int length) {
+        boolean prevInUse = ((FlaggedByte) getByte(block+WORD)).prevInUse;
+        setByte(block+WORD, new FlaggedByte(flag, length, LengthType.LEN, prevInUse));
+    }
+
+    // Compact tags: the header after @block (next block or end sentinel) learns whether @block is in use
+    private void setNextPrevInUse(long block, int length, boolean inUse) {
+        if (compactTags) ((FlaggedByte) writeByte(block+length+WORD)).prevInUse = inUse;
     }
 
     /*
@@ -415,7 +2192,38 @@ public class MemoryMgmt {
      * Merges both blocks
      * Distributes list references accordingly
      */
-    public void mergeAndDistribute(int intersection) {
+    public void mergeAndDistribute(long intersection) {
+
+        if (!flightRecorder) {
+            merge(intersection);
+            return;
+        }
+
+        AllocEvents.Merge event = new AllocEvents.Merge();
+        event.begin();
+
+        int left = ((FlaggedByte) getByte(intersection)).length;
+        int right = ((FlaggedByte) getByte(intersection+WORD)).length;
+        boolean intoTail = intersection == tail && intersection <= memorySize;
+
+        merge(intersection);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.block = intersection-left;
+            event.left = left;
+            event.right = right;
+            event.list = intoTail ? "tail" : getBin(left+right) != null ? "bin" : "misc";
+            event.commit();
+        }
+    }
+
+    private void merge(long intersection) {
+
+        merges++;
+
+        // The block at @intersection stops being a block start
+        if (intersection == compactCursor) compactCursor = 0;
 
         int prevLength = ((FlaggedByte) getByte(intersection)).length;     // Getting length of prev block 
         
@@ -426,8 +2234,10 @@ public class MemoryMgmt {
         setByte(intersection+WORD, null);
         
         // Updating length of new bigger free block
-        ((FlaggedByte) getByte(intersection+length)).length = prevLength + length;
-        ((FlaggedByte) getByte(intersection-prevLength+WORD)).length = prevLength + length;
+        ((FlaggedByte) writeByte(intersection+length)).length = prevLength + length;
+        ((FlaggedByte) writeByte(intersection-prevLength+WORD)).length = prevLength + length;
+
+        refreshGUI(intersection-prevLength, prevLength+length, 'F');
 
         // Removing the left block from its list
 
@@ -453,16 +2263,127 @@ public class MemoryMgmt {
         setByte(intersection+3*WORD, null);
     }
 
-    public void storeData(int ptr, String data) {
-        System.out.print("Storing '" + data + "' at address " + integerToHex(ptr) + " ... ");
+    /*
+     * Payload I/O
+     * Every allocation gets a byte array of its usable size the first time its payload is accessed, freeing drops it
+     * Accesses are bounds-checked against the block's LEN tag and copied in bulk
+     * Payload bytes are not part of copy-on-write snapshots
+     */
+    public void write(long ptr, int offset, byte[] src) {
+        write(ptr, offset, src, 0, src.length);
+    }
+
+    public void write(long ptr, int offset, byte[] src, int srcOffset, int length) {
+        checkAccess(ptr, offset, length);
+        System.arraycopy(src, srcOffset, payload(ptr), offset, length);
+    }
+
+    public void write(long ptr, int offset, ByteBuffer src) {
+        int length = src.remaining();
+        checkAccess(ptr, offset, length);
+        src.get(payload(ptr), offset, length);
+    }
+
+    public void read(long ptr, int offset, byte[] dst) {
+        read(ptr, offset, dst, 0, dst.length);
+    }
+
+    public void read(long ptr, int offset, byte[] dst, int dstOffset, int length) {
+        checkAccess(ptr, offset, length);
+        System.arraycopy(payload(ptr), offset, dst, dstOffset, length);
+    }
+
+    public void read(long ptr, int offset, ByteBuffer dst) {
+        int length = dst.remaining();
+        checkAccess(ptr, offset, length);
+        dst.put(payload(ptr), offset, length);
+    }
+
+    // Copies @n bytes between two different allocations
+    public void memcpy(long dst, long src, int n) {
+        if (dst == src) throw new MemoryError("memcpy with overlapping blocks at " + integerToHex(dst));
+        checkAccess(dst, 0, n);
+        checkAccess(src, 0, n);
+        System.arraycopy(payload(src), 0, payload(dst), 0, n);
+    }
+
+    // Copies @n bytes inside one allocation, ranges may overlap
+    public void memmove(long ptr, int dstOffset, int srcOffset, int n) {
+        checkAccess(ptr, dstOffset, n);
+        checkAccess(ptr, srcOffset, n);
+        byte[] payload = payload(ptr);
+        System.arraycopy(payload, srcOffset, payload, dstOffset, n);
+    }
+
+    public void memset(long ptr, int value, int n) {
+        checkAccess(ptr, 0, n);
+        Arrays.fill(payload(ptr), 0, n, (byte) value);
+    }
+
+    // Zero-copy view over the whole allocation, valid until it is freed
+    public ByteBuffer slice(long ptr) {
+        return ByteBuffer.wrap(payload(ptr));
+    }
+
+    // Block size for a @size byte request: header, footer and alignment included
+    protected int blockSize(int size) {
+
+        // Header only, but large enough to hold a free block once freed
+        if (compactTags) return (Math.max(size+WORD, 4*WORD) + ALIGNMENT-1) / ALIGNMENT * ALIGNMENT;
+
+        int actualSize = size;
+
+        if (size < 2*WORD) actualSize = 2*WORD;   // Minimum amount necessary to create a free block
+
+        actualSize = actualSize + 2*WORD;
+
+        return (actualSize + ALIGNMENT-1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    // Payload bytes of the allocated block at @ptr
+    public int usableSize(long ptr) {
+        if (!isAllocated(ptr)) {
+            throw new MemoryError("Segmentation fault: " + integerToHex(ptr) + " is not an allocated block.");
+        }
+        return ((FlaggedByte) getByte(ptr-WORD)).length - (compactTags ? WORD : 2*WORD);
+    }
+
+    // True only for pointers returned by malloc that have not been freed yet, O(1) without touching the heap
+    public boolean isAllocated(long ptr) {
+        if (ptr >= MMAP_BASE) {
+            long block = ptr-2*WORD-MMAP_BASE;
+            return block >= 0 && block % PAGE == 0 && mapped.get(block/PAGE);
+        }
+        return ptr > 0 && allocated.get(ptr);
+    }
+
+    private void checkAccess(long ptr, int offset, int length) {
+        // Compared without adding, offset + length may overflow
+        if (offset < 0 || length < 0 || length > usableSize(ptr) - offset) {
+            throw new MemoryError("Segmentation fault: " + length + " bytes at offset " + offset + " of " + integerToHex(ptr) + ".");
+        }
+    }
+
+    // Freed pointers have no entry left, so a missing one is validated through usableSize
+    private byte[] payload(long ptr) {
+        byte[] payload = payloads.get(ptr);
+        if (payload == null) {
+            payload = new byte[usableSize(ptr)];
+            payloads.put(ptr, payload);
+        }
+        return payload;
+    }
+
+    public void storeData(long ptr, String data) {
+        log("Storing '" + data + "' at address " + integerToHex(ptr) + " ... ");
         setByte(ptr, new DataByte(data));
-        System.out.print("stored.\n\n");
+        log("stored.\n\n");
     }
     
-    public String retrieveData(int ptr) {
-        System.out.print("Retrieving data at address " + integerToHex(ptr) + " ... ");
+    public String retrieveData(long ptr) {
+        log("Retrieving data at address " + integerToHex(ptr) + " ... ");
         String data = ((DataByte)getByte(ptr)).data;
-        System.out.print("'" + data + "' retrieved.\n\n");
+        log("'" + data + "' retrieved.\n\n");
         return data;
     } 
 
@@ -470,64 +2391,152 @@ public class MemoryMgmt {
      * Helper methods
      */
 
+    // Requests strictly above @threshold bytes are mapped to dedicated segments (0 disables)
+    public void setLargeThreshold(int threshold) {
+        if (threshold > 0) requireQuickFit("a large object threshold");
+        this.largeThreshold = threshold;
+    }
+
+    /*
+     * Samples request sizes and reassigns the quick lists every @interval requests
+     * 0 restores the fixed @minQL..@maxQL lists
+     */
+    public void setAdaptiveQuickLists(int interval) {
+        if (interval > 0) requireQuickFit("adaptive quick lists");
+        this.adaptInterval = interval;
+        if (interval > 0) return;
+        boolean[] fixed = new boolean[quickLists.length];
+        for (int i = minQL; i <= maxQL; i++) fixed[i+1] = true;
+        assignQuickLists(fixed);
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    protected void log(String message) {
+        if (verbose) System.out.print(message);
+    }
+
     public void setGUI(Visualize visualize) {
         this.visualize = visualize;
     }
 
+    /*
+     * GUI updates are published as events and replayed by the Swing thread
+     * The allocator never waits for the GUI
+     */
     public void refreshGUI() {
         if (visualize == null) return;
         visualize.update();
-        try {
-            Thread.sleep(1000);
-        } catch (InterruptedException e) {}
+    }
+
+    // Block at @block of @length bytes now carries @flag
+    public void refreshGUI(long block, int length, char flag) {
+        if (visualize == null) return;
+        visualize.block(block, length, flag);
     }
 
     public void initializeMemory() {
         
         heapExtensions = new LinkedList<>();
 
-        heap = new Byte[memorySize];
+        int heapSize = (int) (commitChunk > 0 ? Math.min(memorySize, commitChunk) : memorySize);    // At most @MAX_SEGMENT
+
+        int chunkSize = chunkSize(memorySize);
+        chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+        heapChunks = new Byte[(int) ((memorySize + chunkSize-1) >> chunkShift)][];
+        committed = heapSize;
 
         // Start
-        heap[0] = new FlaggedByte('U', 0, LengthType.PLEN);    
+        setHeapCell(0, new FlaggedByte('U', 0, LengthType.PLEN));
         
         tail = 0;   // Intializing tail
         
         // End
-        heap[memorySize-WORD] = new FlaggedByte('U', 0, LengthType.LEN);     
+        setHeapCell(heapSize-WORD, new FlaggedByte('U', 0, LengthType.LEN, false));
 
         // First free block
-        heap[WORD] = new FlaggedByte('F', memorySize-WORD*2, LengthType.LEN);
-        heap[WORD*2] = new PointerByte(NULL);
-        heap[WORD*3] = new PointerByte(NULL);
+        setHeapCell(WORD, new FlaggedByte('F', heapSize-WORD*2, LengthType.LEN, true));
+        setHeapCell(WORD*2, new PointerByte(NULL));
+        setHeapCell(WORD*3, new PointerByte(NULL));
 
-        heap[memorySize-WORD*2] = new FlaggedByte('F', memorySize-WORD*2, LengthType.PLEN);
+        setHeapCell(heapSize-WORD*2, new FlaggedByte('F', heapSize-WORD*2, LengthType.PLEN));
 
         // Initializing bins
         bins = new Bin[maxQL];
+        quickLists = new Bin[maxAdaptiveSize/(2*WORD) + 1];
 
         for (int i = minQL; i <= maxQL; i++) {
             bins[i-1] = new Bin(NULL, NULL, i);
+            quickLists[bins[i-1].freeArea/(2*WORD)] = bins[i-1];
         }
 
+        sizeHistogram = new int[quickLists.length];
+        samples = 0;
+        requests = 0;
+        binHits = 0;
+
         // Initializing misc list
         misc = new FreeList(NULL, NULL);
+
+        // Initializing large object table
+        largeObjects = new TreeMap<>();
+        mmapTop = MMAP_BASE;
+
+        // Open snapshots keep reading the old arrays, which are no longer written to
+        synchronized (snapshots) {
+            snapshots.clear();
+            snapshotting = false;
+        }
+        pageEpochs = new HashMap<>();
+
+        payloads = new HashMap<>();
+
+        // Initializing handle table
+        handles = new long[16];
+        Arrays.fill(handles, NULL);
+        freeHandles = new LinkedList<>();
+        handleOf = new HashMap<>();
+        compactCursor = 0;
+
+        // Initializing allocation bitmaps
+        allocated = new Bitmap(heapSize);
+        mapped = new Bitmap(64);
+
+        // Open regions point into the old heap, they are closed without freeing and dropped
+        if (regions != null) {
+            for (Region region : regions) region.abandon();
+        }
+        regions = new LinkedList<>();
+
+        if (profiler != null) profiler.heapReset();
     
     }
 
     // Methods to hide away pointer complexity
-    public void setByte(int pointer, Byte byteToSet) {
+    public void setByte(long pointer, Byte byteToSet) {
+
+        preserve(pointer);
+
+        if (pointer >= MMAP_BASE) {
+            Map.Entry<Long, Byte[]> entry = largeObjects.floorEntry(pointer);
+            if (entry != null && pointer-entry.getKey() < entry.getValue().length) {
+                entry.getValue()[(int) (pointer-entry.getKey())] = byteToSet;
+            }
+            return;
+        }
 
         if (pointer < memorySize) {
-            heap[pointer] = byteToSet;
+            setHeapCell(pointer, byteToSet);
             return;
         }
 
-        int cumulative = memorySize;
+        long cumulative = memorySize;
 
         for (Byte[] extension : heapExtensions) {
             if (pointer < cumulative + extension.length) {
-                extension[pointer-cumulative] = byteToSet;
+                extension[(int) (pointer-cumulative)] = byteToSet;
                 return;
             }
             cumulative += extension.length;
@@ -535,19 +2544,26 @@ public class MemoryMgmt {
 
     }
 
-    public Byte getByte(int pointer) {
+    public Byte getByte(long pointer) {
+
+        // If it is a pointer to a dedicated large object segment
+        if (pointer >= MMAP_BASE) {
+            Map.Entry<Long, Byte[]> entry = largeObjects.floorEntry(pointer);
+            if (entry == null || pointer-entry.getKey() >= entry.getValue().length) return null;
+            return entry.getValue()[(int) (pointer-entry.getKey())];
+        }
         
-        // If it is a pointer within the main heap
+        // If it is a pointer within the main heap, reserved but uncommitted memory is untouched
         if (pointer < memorySize) {
-            return heap[pointer];
+            return pointer < committed ? heapCell(pointer) : null;
         }
         
-        int cumulative = memorySize;
+        long cumulative = memorySize;
 
         // If it is a pointer outside main heap bounds (extension)
         for (Byte[] extension : heapExtensions) {
             if (pointer < cumulative+extension.length) {
-                return extension[pointer-cumulative];
+                return extension[(int) (pointer-cumulative)];
             }
             cumulative += extension.length;
         }
@@ -556,64 +2572,147 @@ public class MemoryMgmt {
 
     }
 
-    public String integerToHex(int ptr) {
-        
-        String hex = Integer.toHexString(ptr);
+    // Start address of the segment holding @pointer, NULL if unmapped
+    private long segmentBase(long pointer) {
+
+        if (pointer >= MMAP_BASE) {
+            Map.Entry<Long, Byte[]> entry = largeObjects.floorEntry(pointer);
+            if (entry == null || pointer-entry.getKey() >= entry.getValue().length) return NULL;
+            return entry.getKey();
+        }
+
+        if (pointer < memorySize) return 0;
+
+        long base = memorySize;
+        for (Byte[] extension : heapExtensions) {
+            if (pointer < base + extension.length) return base;
+            base += extension.length;
+        }
+
+        return NULL;
+    }
+
+    // Cells of the segment starting at @base, null for the main heap (see heapCell) and unmapped bases
+    private Byte[] segmentAt(long base) {
+
+        if (base == 0) return null;
+        if (base >= MMAP_BASE) return largeObjects.get(base);
+
+        long cumulative = memorySize;
+        for (Byte[] extension : heapExtensions) {
+            if (cumulative == base) return extension;
+            cumulative += extension.length;
+        }
+
+        return null;
+    }
+
+    // Main heap chunks are commit sized, or as large as the heap up to @HEAP_CHUNK cells
+    private int chunkSize(long memorySize) {
+        return commitChunk > 0 ? commitChunk : (int) Math.min(HEAP_CHUNK, Long.highestOneBit(memorySize-1) << 1);
+    }
 
-        int zerosToAdd = 8-hex.length();
+    // Main heap cell at @pointer, null in chunks never written to
+    private Byte heapCell(long pointer) {
+        Byte[] chunk = heapChunks[(int) (pointer >> chunkShift)];
+        return chunk == null ? null : chunk[(int) (pointer & (chunk.length-1))];
+    }
+
+    // Writing null to a chunk that does not exist yet leaves it that way
+    private void setHeapCell(long pointer, Byte cell) {
+        int index = (int) (pointer >> chunkShift);
+        if (heapChunks[index] == null) {
+            if (cell == null) return;
+            heapChunks[index] = new Byte[1 << chunkShift];
+        }
+        heapChunks[index][(int) (pointer & ((1 << chunkShift)-1))] = cell;
+    }
 
-        for (int i = 0; i < zerosToAdd; i++) {
-            hex = "0" + hex;
+    // Main heap chunks holding at least one written cell
+    private int chunksInUse() {
+        int count = 0;
+        for (Byte[] chunk : heapChunks) {
+            if (chunk != null) count++;
         }
+        return count;
+    }
 
-        return "0x" + hex;
+    // Cell about to be mutated in place
+    protected Byte writeByte(long pointer) {
+        preserve(pointer);
+        return getByte(pointer);
     }
 
     /*
      * Helper classes
      */
 
-    public interface Byte {}
+    public interface Byte {
+        Byte copy();
+    }
+
+    // Releases cached blocks through free when malloc hits the heap limit, @size is the pending block size
+    public interface Reclaimer {
+        void reclaim(int size);
+    }
 
-    public class FlaggedByte implements Byte {
+    public static class FlaggedByte implements Byte {
         char flag;      // 1 bit flag
         int length;    // ~4 byte word (63 bits)
         LengthType type;
+        boolean prevInUse;  // LEN tags, previous block allocated (only maintained with compact tags)
 
         public FlaggedByte(char flag, int length, LengthType type) {
             this.type = type;
             this.flag = flag;
             this.length = length;
         }
+
+        public FlaggedByte(char flag, int length, LengthType type, boolean prevInUse) {
+            this(flag, length, type);
+            this.prevInUse = prevInUse;
+        }
+
+        public Byte copy() {
+            return new FlaggedByte(flag, length, type, prevInUse);
+        }
     }
 
-    public class DataByte implements Byte {  
+    public static class DataByte implements Byte {  
         String data;    // n byte data
             
         public DataByte(String data) {
             this.data = data;
         }
+
+        public Byte copy() {
+            return this;        // Never mutated
+        }
     }
 
-    public class PointerByte implements Byte {
-        int pointer;    // 8 byte word
+    public static class PointerByte implements Byte {
+        long pointer;    // 8 byte word
             
-        public PointerByte(int pointer) {
+        public PointerByte(long pointer) {
             this.pointer = pointer;
         }
+
+        public Byte copy() {
+            return new PointerByte(pointer);
+        }
     }
 
     private class FreeList {
-        int HEAD;
-        int TAIL;
+        long HEAD;
+        long TAIL;
 
-        public FreeList(int HEAD, int TAIL) {
+        public FreeList(long HEAD, long TAIL) {
             this.HEAD = HEAD;
             this.TAIL = TAIL;
         }
 
         // Removing free block from list
-        public void removeFromList(int freeblock) {
+        public void removeFromList(long freeblock) {
 
             // If there is only one item
             if (HEAD == TAIL) {
@@ -628,7 +2727,7 @@ public class MemoryMgmt {
             // If it is the first block int the list
             if (HEAD == freeblock) {
                 HEAD = ((PointerByte) getByte(freeblock+3*WORD)).pointer;
-                ((PointerByte) getByte(HEAD+2*WORD)).pointer = NULL;    // Updating prev reference of new head
+                ((PointerByte) writeByte(HEAD+2*WORD)).pointer = NULL;    // Updating prev reference of new head
                 // Clearing out list pointers *good practice*
                 setByte(freeblock+2*WORD, null);
                 setByte(freeblock+3*WORD, null);
@@ -638,7 +2737,7 @@ public class MemoryMgmt {
             // If it is the last block in the list
             if (TAIL == freeblock) {
                 TAIL = ((PointerByte) getByte(freeblock+2*WORD)).pointer;
-                ((PointerByte) getByte(TAIL+3*WORD)).pointer = NULL;    // Updating next reference of new tail
+                ((PointerByte) writeByte(TAIL+3*WORD)).pointer = NULL;    // Updating next reference of new tail
                 // Clearing out list pointers *good practice*
                 setByte(freeblock+2*WORD, null);
                 setByte(freeblock+3*WORD, null);
@@ -647,15 +2746,15 @@ public class MemoryMgmt {
 
             // Look for block
 
-            int current = HEAD;                    // Current free block
+            long current = HEAD;                    // Current free block
 
             do {
                 if (current == freeblock) {
-                    int prevBlock = ((PointerByte) getByte(current+2*WORD)).pointer;
-                    int nextBlock = ((PointerByte) getByte(current+3*WORD)).pointer;
+                    long prevBlock = ((PointerByte) getByte(current+2*WORD)).pointer;
+                    long nextBlock = ((PointerByte) getByte(current+3*WORD)).pointer;
                     // Exchanging prev and next references of adjacent blocks
-                    ((PointerByte) getByte(prevBlock+3*WORD)).pointer = nextBlock;
-                    ((PointerByte) getByte(nextBlock+2*WORD)).pointer = prevBlock;
+                    ((PointerByte) writeByte(prevBlock+3*WORD)).pointer = nextBlock;
+                    ((PointerByte) writeByte(nextBlock+2*WORD)).pointer = prevBlock;
                     break;
                 }
                 current = ((PointerByte) getByte(current+3*WORD)).pointer;   // Iterating to next free block in list
@@ -667,7 +2766,7 @@ public class MemoryMgmt {
         }
 
         // Appending free block to head of list
-        public void addToList(int freeblock) {
+        public void addToList(long freeblock) {
 
             // Setting prev as null
             setByte(freeblock+2*WORD, new PointerByte(NULL));
@@ -682,7 +2781,7 @@ public class MemoryMgmt {
             }
 
             // If list is not empty
-            ((PointerByte) getByte(HEAD+2*WORD)).pointer = freeblock;           // Setting prev reference of current head to new block
+            ((PointerByte) writeByte(HEAD+2*WORD)).pointer = freeblock;           // Setting prev reference of current head to new block
             // Set next to current HEAD
             setByte(freeblock+3*WORD, new PointerByte(HEAD));
             HEAD = freeblock;
@@ -693,14 +2792,336 @@ public class MemoryMgmt {
         int n;
         int freeArea;
 
-        public Bin(int HEAD, int TAIL, int n) {
+        // Batched refill state
+        int batch = 2;
+        long hits;
+        long hitsAtRefill;
+        int refills;
+
+        public Bin(long HEAD, long TAIL, int n) {
             super(HEAD, TAIL);
             this.n = n;
             this.freeArea = n*WORD*2 + (2*WORD);    // n*DWORD + pointers(2*WORD)
         }
     }
 
-    private class MemoryError extends Error {
+    /*
+     * Scoped arena
+     * Allocations are DWORD aligned bumps inside the current chunk, they carry no tags and are never freed one by one
+     * Closing a region closes the regions nested in it first, then frees its chunks
+     */
+    public class Region implements AutoCloseable {
+
+        final Region parent;
+        final int chunkSize;
+
+        final ArrayList<Long> chunks = new ArrayList<>();   // Chunk pointers, as returned by malloc
+
+        long top = NULL;                // Next free address in the current chunk
+        long end = NULL;                // End of the current chunk's payload
+
+        boolean open = true;
+
+        Region(Region parent, int chunkSize) {
+            this.parent = parent;
+            this.chunkSize = chunkSize;
+        }
+
+        public long alloc(int size) {
+
+            if (!open) throw new MemoryError("Allocation from a closed region.");
+
+            if (size <= 0) {
+                log("Exception triggered in thread. Exiting.\n\n");
+                return NULL;
+            }
+
+            int alignedSize = ((size + 2*WORD-1) / (2*WORD)) * 2*WORD;
+
+            if (top == NULL || end - top < alignedSize) {
+
+                // Leftovers of a chunk are abandoned until the region closes
+                long chunk = malloc(Math.max(chunkSize, alignedSize));
+
+                if (chunk == NULL) return NULL;
+
+                chunks.add(chunk);
+                top = chunk;
+                end = chunk + MemoryMgmt.this.usableSize(chunk);
+            }
+
+            long pointer = top;
+            top += alignedSize;
+
+            return pointer;
+        }
+
+        // Opens a region nested in this one, which must be the innermost open region
+        public Region openRegion(int chunkSize) {
+            if (regions.peekLast() != this) throw new MemoryError("Only the innermost region can open a nested region.");
+            return MemoryMgmt.this.openRegion(chunkSize);
+        }
+
+        public Region openRegion() {
+            return openRegion(this.chunkSize);
+        }
+
+        public boolean contains(long pointer) {
+            for (long chunk : chunks) {
+                if (pointer >= chunk && pointer < chunk + MemoryMgmt.this.usableSize(chunk)) return true;
+            }
+            return false;
+        }
+
+        /*
+         * Payload I/O on pointers returned by alloc, which are not allocations of their own
+         * Sizes are not recorded, so accesses are bounded by the end of the chunk holding the pointer
+         */
+        public void write(long ptr, int offset, byte[] src) {
+            long chunk = chunkOf(ptr, offset, src.length);
+            System.arraycopy(src, 0, payload(chunk), (int) (ptr-chunk)+offset, src.length);
+        }
+
+        public void read(long ptr, int offset, byte[] dst) {
+            long chunk = chunkOf(ptr, offset, dst.length);
+            System.arraycopy(payload(chunk), (int) (ptr-chunk)+offset, dst, 0, dst.length);
+        }
+
+        public void memset(long ptr, int value, int n) {
+            long chunk = chunkOf(ptr, 0, n);
+            int start = (int) (ptr-chunk);
+            Arrays.fill(payload(chunk), start, start+n, (byte) value);
+        }
+
+        // Zero-copy view from @ptr to the end of its chunk, valid until the region closes
+        public ByteBuffer slice(long ptr) {
+            long chunk = chunkOf(ptr, 0, 0);
+            int start = (int) (ptr-chunk);
+            return ByteBuffer.wrap(payload(chunk), start, MemoryMgmt.this.usableSize(chunk)-start).slice();
+        }
+
+        // Bytes from @ptr to the end of its chunk
+        public int usableSize(long ptr) {
+            long chunk = chunkOf(ptr, 0, 0);
+            return MemoryMgmt.this.usableSize(chunk) - (int) (ptr-chunk);
+        }
+
+        // Chunk holding @ptr, @length bytes at @offset from it have to stay inside the chunk
+        private long chunkOf(long ptr, int offset, int length) {
+            for (long chunk : chunks) {
+                long chunkEnd = chunk + MemoryMgmt.this.usableSize(chunk);
+                if (ptr < chunk || ptr >= chunkEnd) continue;
+                if (offset < 0 || length < 0 || ptr + offset + length > chunkEnd) {
+                    throw new MemoryError("Segmentation fault: " + length + " bytes at offset " + offset + " of " + integerToHex(ptr) + ".");
+                }
+                return chunk;
+            }
+            throw new MemoryError("Segmentation fault: " + integerToHex(ptr) + " is not in a chunk of this region.");
+        }
+
+        public int getChunks() {
+            return chunks.size();
+        }
+
+        public Region getParent() {
+            return parent;
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+
+            if (!open) return;
+
+            if (!regions.contains(this)) throw new MemoryError("Closing a region that is not open on this heap.");
+
+            // Nested regions go first, innermost last in the list
+            while (regions.peekLast() != this) regions.peekLast().close();
+
+            regions.removeLast();
+            open = false;
+
+            log("Closing region, releasing " + chunks.size() + " chunk(s) ...\n\n");
+
+            for (long chunk : chunks) free(chunk);
+
+            chunks.clear();
+            top = end = NULL;
+        }
+
+        // The heap was reset under the region, its chunks are gone
+        private void abandon() {
+            open = false;
+            chunks.clear();
+            top = end = NULL;
+        }
+    }
+
+    public class Snapshot implements HeapView {
+
+        int epoch;
+
+        final long heapSize = memorySize;
+        final long tail = MemoryMgmt.this.tail;
+
+        // Chunks created later only hold cells written after the snapshot, their pages are preserved first
+        final Byte[][] heapChunks = MemoryMgmt.this.heapChunks;
+        final int chunkShift = MemoryMgmt.this.chunkShift;
+        final long committed = MemoryMgmt.this.committed;
+        final ArrayList<Byte[]> extensions = new ArrayList<>(heapExtensions);
+        final TreeMap<Long, Byte[]> largeObjects = new TreeMap<>(MemoryMgmt.this.largeObjects);
+
+        final int[] binSizes = new int[bins.length];
+        final long[] binHeads = new long[bins.length];
+        final long miscHead = misc.HEAD;
+
+        final BlockLayout layout = compactTags ? BlockLayout.COMPACT_TAGS : BlockLayout.BOUNDARY_TAGS;
+
+        // Pages written to by the allocator since the snapshot was taken
+        final ConcurrentHashMap<Long, Byte[]> pages = new ConcurrentHashMap<>();
+
+        Snapshot() {
+            for (int i = 0; i < bins.length; i++) {
+                binSizes[i] = bins[i].freeArea;
+                binHeads[i] = bins[i].HEAD;
+            }
+        }
+
+        /*
+         * Cell at @pointer when the snapshot was taken
+         * Preserved pages win, the live cell is copied and rechecked in case the allocator wrote to it meanwhile
+         */
+        public Byte getByte(long pointer) {
+
+            long base = 0;
+            long length = 0;
+            Byte[] segment = null;          // Stays null for the main heap
+
+            if (pointer >= MMAP_BASE) {
+                Map.Entry<Long, Byte[]> entry = largeObjects.floorEntry(pointer);
+                if (entry == null) return null;
+                base = entry.getKey();
+                segment = entry.getValue();
+                length = segment.length;
+            } else if (pointer < heapSize) {
+                length = committed;
+            } else {
+                base = heapSize;
+                for (Byte[] extension : extensions) {
+                    if (pointer < base + extension.length) {
+                        segment = extension;
+                        length = extension.length;
+                        break;
+                    }
+                    base += extension.length;
+                }
+            }
+
+            if (pointer-base >= length) return null;
+
+            long page = base + ((pointer-base)/COW_PAGE)*COW_PAGE;
+
+            Byte[] preserved = pages.get(page);
+            if (preserved != null) return preserved[(int) (pointer-page)];
+
+            Byte live;
+            if (segment != null) {
+                live = segment[(int) (pointer-base)];
+            } else {
+                Byte[] chunk = heapChunks[(int) (pointer >> chunkShift)];
+                live = chunk == null ? null : chunk[(int) (pointer & (chunk.length-1))];
+            }
+            if (live != null) live = live.copy();
+
+            preserved = pages.get(page);
+            if (preserved != null) return preserved[(int) (pointer-page)];
+
+            return live;
+        }
+
+        public long getHeapSize() {
+            return heapSize;
+        }
+
+        public long getCommittedSize() {
+            return committed;
+        }
+
+        public long getTail() {
+            return tail;
+        }
+
+        public BlockLayout getBlockLayout() {
+            return layout;
+        }
+
+        public long getMiscHead() {
+            return miscHead;
+        }
+
+        // Block size served by each bin, and its first free block
+        public int[] getBinSizes() {
+            return binSizes;
+        }
+
+        public long[] getBinHeads() {
+            return binHeads;
+        }
+
+        public int[] getExtensionLengths() {
+            int[] lengths = new int[extensions.size()];
+            for (int i = 0; i < lengths.length; i++) lengths[i] = extensions.get(i).length;
+            return lengths;
+        }
+
+        // Address and length of each large object segment
+        public TreeMap<Long, Integer> getLargeObjects() {
+            TreeMap<Long, Integer> lengths = new TreeMap<>();
+            for (Map.Entry<Long, Byte[]> entry : largeObjects.entrySet()) lengths.put(entry.getKey(), entry.getValue().length);
+            return lengths;
+        }
+
+        public void close() {
+            synchronized (snapshots) {
+                snapshots.remove(this);
+                snapshotting = !snapshots.isEmpty();
+                // Any later snapshot gets a newer epoch than every recorded page, so the map can start over
+                // A write racing with this still updates the old map, which is harmless
+                if (!snapshotting) pageEpochs = new HashMap<>();
+            }
+            pages.clear();
+        }
+    }
+
+    // Growable bit set
+    private class Bitmap {
+        long[] words;
+
+        public Bitmap(long bits) {
+            words = new long[(int) ((bits+63)/64)];
+        }
+
+        public boolean get(long bit) {
+            int word = (int) (bit >>> 6);
+            return word < words.length && (words[word] & (1L << bit)) != 0;
+        }
+
+        public void set(long bit) {
+            int word = (int) (bit >>> 6);
+            if (word >= words.length) words = Arrays.copyOf(words, Math.max(word+1, words.length*2));
+            words[word] |= 1L << bit;
+        }
+
+        public void clear(long bit) {
+            int word = (int) (bit >>> 6);
+            if (word < words.length) words[word] &= ~(1L << bit);
+        }
+    }
+
+    static class MemoryError extends Error {
         public MemoryError(String description) {
             super(description);
         }
@@ -708,27 +3129,121 @@ public class MemoryMgmt {
 
     // Getters
 
+    /*
+     * Quick fit only features: the free lists and everything built on them (deferred coalescing, handles and compaction,
+     * regions, checkpoints, tuning knobs, ...)
+     * Engines reusing this heap with their own free block index answer false, these APIs then reject them here
+     */
+    protected boolean isQuickFit() {
+        return true;
+    }
+
+    protected void requireQuickFit(String feature) {
+        if (!isQuickFit()) throw new UnsupportedOperationException("The " + name() + " engine does not support " + feature + ".");
+    }
+
+    public String name() {
+        return "quick";
+    }
+
+    // Committed main heap as one array, copied out of its chunks
     public Byte[] getHeap() {
-        return heap;
+        Byte[] cells = new Byte[(int) committed];
+        for (int i = 0; (long) i << chunkShift < committed; i++) {
+            if (heapChunks[i] == null) continue;
+            System.arraycopy(heapChunks[i], 0, cells, i << chunkShift, (int) Math.min(1 << chunkShift, committed - ((long) i << chunkShift)));
+        }
+        return cells;
+    }
+
+    // Reserved main heap, extensions start after it
+    public long getMemorySize() {
+        return memorySize;
+    }
+
+    // Committed part of the main heap
+    public long getCommittedSize() {
+        return committed;
     }
 
     public int getWord() {
         return WORD;
     }
 
+    public long getTail() {
+        return tail;
+    }
+
+    /*
+     * Hands the tail over as an ordinary (unlisted) free block, for engines that keep no tail
+     * Returns NULL if the tail already reached the end of the heap
+     */
+    protected long detachTail() {
+        if (tail == committed-2*WORD) return NULL;
+        long block = tail;
+        tail = committed-2*WORD;
+        return block;
+    }
+
+    // Allocation bitmap upkeep for engines with their own malloc/free
+    protected void markAllocated(long ptr, boolean isAllocated) {
+        if (isAllocated) {
+            allocated.set(ptr);
+        } else {
+            allocated.clear(ptr);
+            payloads.remove(ptr);
+        }
+    }
+
+    public boolean isQuickSize(int blockSize) {
+        return getBin(blockSize) != null;
+    }
+
+    /*
+     * Free list membership of every listed block
+     * Maps the block to the size of its bin, or 0 if it is in misc
+     */
+    public HashMap<Long, Integer> listMembership() {
+        HashMap<Long, Integer> membership = new HashMap<>();
+        for (Bin bin : bins) {
+            for (long current = bin.HEAD; current != NULL; current = ((PointerByte) getByte(current+3*WORD)).pointer) {
+                membership.put(current, bin.freeArea);
+            }
+        }
+        for (long current = misc.HEAD; current != NULL; current = ((PointerByte) getByte(current+3*WORD)).pointer) {
+            membership.put(current, 0);
+        }
+        return membership;
+    }
+
+    public double getBinHitRate() {
+        return requests == 0 ? 0 : (double) binHits/requests;
+    }
+
+    public LinkedList<Byte[]> getHeapExtensions() {
+        return heapExtensions;
+    }
+
+    public TreeMap<Long, Byte[]> getLargeObjects() {
+        return largeObjects;
+    }
+
     // Tests
 
     public void testHeader(int number, boolean reset, String description) {
-        if (reset) initializeMemory();
-        System.out.print("===================================\n\n");
-        System.out.print("Running test number " + number + " ...\n\n");
-        System.out.print("Description: " + description + "\n\n");
-        System.out.print("HEAD pointer: " + integerToHex(tail) + "\n\n");
+        if (reset) {
+            initializeMemory();
+            refreshGUI();
+        }
+        log("===================================\n\n");
+        log("Running test number " + number + " ...\n\n");
+        log("Description: " + description + "\n\n");
+        log("HEAD pointer: " + integerToHex(tail) + "\n\n");
     }
 
     public void test1() {
         testHeader(1, true, "Required.");
-        int ptr1 = malloc(28);
+        long ptr1 = malloc(28);
         storeData(ptr1, "string");
         retrieveData(ptr1);
         free(ptr1);
@@ -736,11 +3251,11 @@ public class MemoryMgmt {
 
     public void test2() {
         testHeader(2, true, "Required.");
-        int ptr1 = malloc(28);
-        int ptr2 = malloc(1024);
-        int ptr3 = malloc(28);
+        long ptr1 = malloc(28);
+        long ptr2 = malloc(1024);
+        long ptr3 = malloc(28);
         free(ptr2);
-        int ptr4 = malloc(512);
+        long ptr4 = malloc(512);
         free(ptr1);
         free(ptr3);
         free(ptr4);
@@ -748,8 +3263,8 @@ public class MemoryMgmt {
 
     public void test3() {
         testHeader(3, true, "Required.");
-        int ptr1 = malloc(7168);
-        int ptr2 = malloc(1024);
+        long ptr1 = malloc(7168);
+        long ptr2 = malloc(1024);
         free(ptr1);
         free(ptr2);
     }
@@ -757,17 +3272,17 @@ public class MemoryMgmt {
     public void test4() {
         testHeader(4, true, "Required.");
         malloc(1024);
-        int ptr1 = malloc(28);
+        long ptr1 = malloc(28);
         free(ptr1);
         free(ptr1);
     }
 
     public void test5() {
         testHeader(5, true, "Quick fit bin allocation.");
-        int ptr1 = malloc(16);
-        int ptr2 = malloc(24);
-        int ptr3 = malloc(32);
-        int ptr4 = malloc(512);
+        long ptr1 = malloc(16);
+        long ptr2 = malloc(24);
+        long ptr3 = malloc(32);
+        long ptr4 = malloc(512);
         free(ptr1);
         free(ptr2);
         free(ptr3);   
@@ -779,12 +3294,12 @@ public class MemoryMgmt {
 
     public void test6() {
         testHeader(6, true, "First fit misc allocation.");
-        int ptr1 = malloc(230);
-        int ptr2 = malloc(100);
+        long ptr1 = malloc(230);
+        long ptr2 = malloc(100);
         malloc(7830);
         free(ptr1);
         free(ptr2);
-        int ptr3 = malloc(50);  
+        long ptr3 = malloc(50);  
         storeData(ptr3, "stored in 108 free block as it is the first in the misc list");
         retrieveData(ptr3);
         free(ptr3);
@@ -792,10 +3307,10 @@ public class MemoryMgmt {
 
     public void test7() {
         testHeader(7, true, "Minimum allocation set to 8 bytes to avoid unreacheable memory.");
-        int ptr1 = malloc(1);
+        long ptr1 = malloc(1);
         storeData(ptr1, "minimum space is 8");
         retrieveData(ptr1);
-        int ptr2 = malloc(24);
+        long ptr2 = malloc(24);
         malloc(2);
         malloc(512);
         free(ptr1);
@@ -804,18 +3319,18 @@ public class MemoryMgmt {
 
     public void test8() {
         testHeader(8, true, "Avoidance of unreacheable block creation. Memory will only be allocated if the free block's remaining space is 0 or if it allows for the creation of a new free block");
-        int ptr1 = malloc(8175);
+        long ptr1 = malloc(8175);
         storeData(ptr1, "avoiding the creation of an unreachable byte");
         retrieveData(ptr1);
-        int ptr2 = malloc(8176);  
+        long ptr2 = malloc(8176);  
         storeData(ptr2, "perfect fit");
     }
 
     public void test9() {   
         testHeader(9, true, "Lazy coalescing, free lists.");
-        int ptr1 = malloc(8);
-        int ptr2 = malloc(20);
-        int ptr3 = malloc(32);
+        long ptr1 = malloc(8);
+        long ptr2 = malloc(20);
+        long ptr3 = malloc(32);
         free(malloc(8092));
         free(ptr1);
         free(ptr2);
@@ -825,8 +3340,8 @@ public class MemoryMgmt {
 
     public void test10() {
         testHeader(10, true, "Lazy coalescing, tail.");
-        int ptr1 = malloc(3000);
-        int ptr2 = malloc(5000);
+        long ptr1 = malloc(3000);
+        long ptr2 = malloc(5000);
         free(ptr1);
         free(ptr2);
         malloc(8000);
@@ -834,8 +3349,8 @@ public class MemoryMgmt {
 
     public void test11() {
         testHeader(11, false, "Lazy coalescing, sbrk allocated area.");
-        int ptr1 = malloc(8000);
-        int ptr2 = malloc(24);
+        long ptr1 = malloc(8000);
+        long ptr2 = malloc(24);
         free(ptr1);
         free(ptr2);
         malloc(8100);
@@ -843,7 +3358,7 @@ public class MemoryMgmt {
 
     public void test12() {
         testHeader(12, true, "Quick fit on sbrk allocated area.");
-        int ptr1 = malloc(17);
+        long ptr1 = malloc(17);
         malloc(8151);
         free(malloc(16));
         free(ptr1);
@@ -852,24 +3367,426 @@ public class MemoryMgmt {
 
     public void test13() {
         testHeader(13, true, "Bin coallescing resulting into a bigger bin (5 into 10), allowing only for perfect fit allocation.");   
-        int ptr1 = malloc(40);
-        int ptr2 = malloc(40);
+        long ptr1 = malloc(40);
+        long ptr2 = malloc(40);
         malloc(8080);
         free(ptr1);    
         free(ptr2);
-        int ptr3 = malloc(72);
+        long ptr3 = malloc(72);
         storeData(ptr3, "Although the hypothetical remaining space corresponds to 16, allowing for the creation of a new free block, the program requests for more memory as the newly coalesced block fits into bin 10, accepting only allocation calls of 88 bytes (88+8 = 96 -> 40+8 + 40+8 = 96)");
-        int ptr4 = malloc(88);     
+        long ptr4 = malloc(88);     
         storeData(ptr4, "Blocks were coalesced in previous request, no merging is needed.");
     }
 
     public void test14() {
         testHeader(14, true, "Sbrk closest power of 2.");      
-        int ptr1 = malloc(10240);       
-        int ptr2 = malloc(8176);       
+        long ptr1 = malloc(10240);       
+        long ptr2 = malloc(8176);       
         malloc(3000);      
         free(ptr1);  
         free(ptr2);
         malloc(5000);
     }
-}
\ No newline at end of file
+
+    public void test15() {
+        testHeader(15, true, "Large object path, dedicated segments bypass bins, tail and misc.");
+        setLargeThreshold(4096);
+        long ptr1 = malloc(10240);
+        long ptr2 = malloc(28);
+        storeData(ptr1, "stored in a dedicated segment, the main heap tail only moved for ptr2");
+        retrieveData(ptr1);
+        free(ptr1);
+        free(ptr1);
+        free(ptr2);
+        setLargeThreshold(0);
+    }
+
+    public void test16() {
+        testHeader(16, true, "Adaptive quick lists, a hot 208 byte class (26 DWORDs) gets its own list and is served from it.");
+        setAdaptiveQuickLists(8);
+        long[] ptrs = new long[8];
+        for (int i = 0; i < ptrs.length; i++) ptrs[i] = malloc(200);
+        for (int i = 0; i < ptrs.length; i++) free(ptrs[i]);
+        for (int i = 0; i < ptrs.length; i++) malloc(200);
+        log("Bin hit rate: " + getBinHitRate() + "\n\n");
+        // 230 byte requests make 238 byte blocks, no list can serve them and none is created for them
+        for (int i = 0; i < ptrs.length; i++) malloc(230);
+        log("Block size for 230 bytes: " + blockSize(230) + ", 232 byte list: " + isQuickSize(232) + "\n\n");
+        setAdaptiveQuickLists(0);
+    }
+
+    public void test17() {
+        testHeader(17, true, "Copy-on-write snapshot, the view keeps the state at the time it was taken.");
+        long ptr1 = malloc(28);
+        Snapshot snapshot = snapshot();
+        free(ptr1);
+        malloc(512);
+        log("Snapshot tail: " + integerToHex(snapshot.getTail()) + ", live tail: " + integerToHex(tail) + "\n\n");
+        log("Snapshot flag of ptr1: " + ((FlaggedByte) snapshot.getByte(ptr1-WORD)).flag + ", live flag: " + ((FlaggedByte) getByte(ptr1-WORD)).flag + "\n\n");
+        int tracked = pageEpochs.size();
+        snapshot.close();
+        log("Pages tracked while open: " + tracked + ", after close: " + pageEpochs.size() + "\n\n");
+    }
+
+    public void test18() {
+        testHeader(18, true, "Checkpoint and restore, the heap is reopened from a memory-mapped file.");
+        long ptr1 = malloc(28);
+        long ptr2 = malloc(8000);
+        storeData(ptr1, "survives the restart");
+        free(ptr2);
+        int handle = allocHandle(40);
+        java.io.File file;
+        try {
+            file = java.io.File.createTempFile("heap", ".ckpt");
+            file.deleteOnExit();
+            checkpoint(file.getPath());
+            malloc(1024);
+            restore(file.getPath());
+        } catch (IOException e) {
+            log("Checkpoint failed: " + e.getMessage() + "\n\n");
+            return;
+        }
+        log("Restored tail: " + integerToHex(tail) + ", handle resolves to: " + integerToHex(resolve(handle)) + "\n\n");
+        retrieveData(ptr1);
+        malloc(24);
+        // A truncated checkpoint is refused before anything is replaced
+        try {
+            byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+            java.nio.file.Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length/2));
+            restore(file.getPath());
+        } catch (IOException e) {
+            log("Truncated checkpoint: " + e.getClass().getSimpleName() + ", tail still: " + integerToHex(tail) + "\n\n");
+        }
+        file.delete();
+        freeHandle(handle);
+    }
+
+    public void test19() {
+        testHeader(19, true, "Payload I/O, bulk copies bounds-checked against the LEN tag.");
+        long ptr1 = malloc(16);
+        long ptr2 = malloc(16);
+        write(ptr1, 0, "quick fit bytes!".getBytes());
+        memcpy(ptr2, ptr1, 16);
+        memmove(ptr2, 6, 0, 9);
+        memset(ptr1, '-', 5);
+        byte[] bytes = new byte[16];
+        read(ptr2, 0, bytes);
+        log("ptr2: '" + new String(bytes) + "', ptr1 via slice: '" + java.nio.charset.StandardCharsets.US_ASCII.decode(slice(ptr1)) + "'\n\n");
+        try {
+            write(ptr1, 10, new byte[7]);
+        } catch (Error e) {
+            log(e.getMessage() + "\n\n");
+        }
+        // An offset that overflows when the length is added is caught the same way
+        try {
+            write(ptr1, Integer.MAX_VALUE, new byte[8]);
+        } catch (Error e) {
+            log(e.getMessage() + "\n\n");
+        }
+    }
+
+    public void test20() {
+        testHeader(20, true, "Heap walk, fragmentation report and parallel consistency check across extensions.");
+        long ptr1 = malloc(40);
+        long ptr2 = malloc(40);
+        malloc(8000);
+        malloc(200);
+        free(ptr1);
+        free(ptr2);
+        HeapWalk walk = new HeapWalk(this);
+        log(walk.fragmentation() + "\n\n");
+        log("Violations before coalescing: " + walk.check(true) + "\n\n");
+        coalescePass();
+        log("Violations after coalescing: " + walk.check(true) + "\n\n");
+    }
+
+    public void test21() {
+        testHeader(21, true, "Compaction, movable blocks slide down around a pinned block and free space merges into the tail.");
+        int h1 = allocHandle(100);
+        int h2 = allocHandle(300);
+        long pinned = malloc(40);
+        int h3 = allocHandle(200);
+        int h4 = allocHandle(60);
+        storeData(resolve(h4), "moved with its block");
+        write(resolve(h2), 0, "payload moved too".getBytes(StandardCharsets.US_ASCII));
+        freeHandle(h1);
+        freeHandle(h3);
+        compact(2);
+        log("After 2 steps, h2: " + integerToHex(resolve(h2)) + ", h4: " + integerToHex(resolve(h4)) + ", tail: " + integerToHex(tail) + "\n\n");
+        compact(Integer.MAX_VALUE);
+        log("After the pass, h2: " + integerToHex(resolve(h2)) + ", h4: " + integerToHex(resolve(h4)) + ", tail: " + integerToHex(tail) + "\n\n");
+        retrieveData(resolve(h4));
+        byte[] payload = new byte[17];
+        read(resolve(h2), 0, payload);
+        log("Payload of h2: '" + new String(payload, StandardCharsets.US_ASCII) + "'\n\n");
+        log("Violations: " + new HeapWalk(this).check(true) + "\n\n");
+        freeHandle(h2);
+        free(pinned);
+    }
+
+    public void test22() {
+        testHeader(22, true, "Allocation bitmap, O(1) validation rejects interior pointers holding tags.");
+        long ptr1 = malloc(64);
+        long ptr2 = malloc(16);
+        free(ptr2);
+        // ptr1+68 follows ptr1's PLEN footer, a tag flagged 'U' that a tag check would take for a header
+        log("isAllocated(ptr1): " + isAllocated(ptr1) + ", isAllocated(ptr1+68): " + isAllocated(ptr1+68) + ", usableSize(ptr1): " + usableSize(ptr1) + "\n\n");
+        free(ptr1+68);
+        free(ptr2);
+        free(ptr1);
+    }
+
+    public void test23() {
+        testHeader(23, true, "Parallel coalescing, the main heap and each extension are coalesced concurrently.");
+        long[] ptrs = new long[12];
+        for (int i = 0; i < ptrs.length; i++) ptrs[i] = malloc(i < 6 ? 1000 : 3000);
+        for (int i = 0; i < ptrs.length; i++) free(ptrs[i]);
+        HeapWalk walk = new HeapWalk(this);
+        log("Before: " + walk.fragmentation() + "\n\n");
+        parallelCoalescePass();
+        log("After: " + walk.fragmentation() + "\n\n");
+        log("Violations: " + walk.check(true) + "\n\n");
+    }
+
+    public void test24() {
+        testHeader(24, true, "Regions, bump allocation from chunks, nested regions and bulk free on close.");
+        Region outer = openRegion(256);
+        long[] bumped = new long[10];
+        for (int i = 0; i < bumped.length; i++) bumped[i] = outer.alloc(40);
+        Region inner = outer.openRegion(128);
+        long first = inner.alloc(24);
+        inner.alloc(300);
+        log("Outer chunks: " + outer.getChunks() + ", inner chunks: " + inner.getChunks() + ", open regions: " + getOpenRegions() + "\n\n");
+        log("inner.contains(" + integerToHex(first) + "): " + inner.contains(first) + ", outer.contains(" + integerToHex(first) + "): " + outer.contains(first) + "\n\n");
+        outer.write(bumped[1], 0, "bump allocated".getBytes(StandardCharsets.US_ASCII));
+        byte[] back = new byte[14];
+        outer.read(bumped[1], 0, back);
+        log("Read back from " + integerToHex(bumped[1]) + ": '" + new String(back, StandardCharsets.US_ASCII) + "', bytes to the chunk end: " + outer.usableSize(bumped[1]) + "\n\n");
+        outer.close();
+        log("Open regions after closing the outer region: " + getOpenRegions() + ", inner open: " + inner.isOpen() + "\n\n");
+        log("Violations: " + new HeapWalk(this).check(false) + "\n\n");
+        Region stale = openRegion(256);
+        stale.openRegion(128);
+        initializeMemory();
+        log("After a heap reset, stale open: " + stale.isOpen() + ", open regions: " + getOpenRegions() + "\n\n");
+        stale.close();
+    }
+
+    public void test25() {
+        testHeader(25, true, "64-bit mode, 8-byte words, 16-byte aligned blocks and large objects mapped above 4 GB.");
+        MemoryMgmt wide = new MemoryMgmt(8192, 8);
+        wide.setVerbose(verbose);
+        wide.setLargeThreshold(4096);
+        log("Bin sizes: " + wide.bins[0].freeArea + " .. " + wide.bins[wide.bins.length-1].freeArea + " bytes\n\n");
+        long ptr1 = wide.malloc(28);
+        long ptr2 = wide.malloc(100);
+        long ptr3 = wide.malloc(10000);
+        log("16-byte aligned: " + (ptr1 % 16 == 0 && ptr2 % 16 == 0 && ptr3 % 16 == 0) + ", usableSize(ptr2): " + wide.usableSize(ptr2) + "\n\n");
+        wide.write(ptr3, 9990, "above 4GB".getBytes());
+        byte[] bytes = new byte[9];
+        wide.read(ptr3, 9990, bytes);
+        log("Read back from " + wide.integerToHex(ptr3) + ": '" + new String(bytes) + "'\n\n");
+        wide.free(ptr3);
+        wide.free(ptr2);
+        wide.free(ptr1);
+        log("Violations: " + new HeapWalk(wide).check(false) + "\n\n");
+    }
+
+    public void test26() {
+        testHeader(26, true, "Batched bin refill, a burst of 40 byte requests is served by bin hits between a few tail refills.");
+        setBinRefill(16);
+        long[] ptrs = new long[24];
+        for (int i = 0; i < ptrs.length; i++) ptrs[i] = malloc(40);
+        log("Bin hit rate: " + getBinHitRate() + ", refill batch: " + getBin(48).batch + "\n\n");
+        for (int i = 0; i < ptrs.length; i += 2) free(ptrs[i]);
+        log("Violations: " + new HeapWalk(this).check(false) + "\n\n");
+        setBinRefill(0);
+    }
+
+    public void test27() {
+        testHeader(27, true, "Sampling profiler, estimated bytes per allocation path, attributed to the code calling the allocator.");
+        setProfiler(new AllocProfiler(256, 1, 27));
+        long[] records = ProfileWorkload.records(this, 16);
+        ProfileWorkload.buffers(this, 8, 300);
+        malloc(9000);
+        // Half the records are released again, the live profile drops what was sampled among them
+        for (int i = 0; i < records.length; i += 2) free(records[i]);
+        log(profiler.dump(false) + "\n");
+        log(profiler.dump(true) + "\n");
+        setProfiler(null);
+    }
+
+    public void test28() {
+        testHeader(28, true, "Compact tags, allocated blocks drop their footer and the next header keeps a prev-in-use bit.");
+        setCompactTags(true);
+        long ptr1 = malloc(28);
+        long ptr2 = malloc(28);
+        long ptr3 = malloc(28);
+        log("Block size for 28 bytes: " + ((FlaggedByte) getByte(ptr1-WORD)).length + ", usableSize(ptr1): " + usableSize(ptr1) + "\n\n");
+        write(ptr1, 0, new byte[usableSize(ptr1)]);
+        free(ptr1);
+        free(ptr2);
+        log("ptr3 prevInUse: " + ((FlaggedByte) getByte(ptr3-WORD)).prevInUse + "\n\n");
+        coalescePass();
+        log("Violations: " + new HeapWalk(this).check(true) + "\n\n");
+        free(ptr3);
+        try {
+            setCompacting(true);
+        } catch (UnsupportedOperationException e) {
+            log(e.getMessage() + "\n\n");
+        }
+        setCompactTags(false);
+    }
+
+    public void test29() {
+        testHeader(29, true, "Lazy commit, the 8 KB heap is reserved and committed 1 KB at a time as the tail advances.");
+        setLazyCommit(1024);
+        log("Committed: " + getCommittedSize() + " of " + getMemorySize() + " bytes, chunks in memory: " + chunksInUse() + " of " + heapChunks.length + "\n\n");
+        long ptr1 = malloc(600);
+        long ptr2 = malloc(600);
+        log("Committed: " + getCommittedSize() + " bytes, extensions: " + heapExtensions.size() + "\n\n");
+        storeData(ptr2, "Written to a freshly committed chunk");
+        long ptr3 = malloc(6000);
+        log("Committed: " + getCommittedSize() + " bytes, extensions: " + heapExtensions.size() + "\n\n");
+        // The chunks ptr3 spans without a tag in them were never created
+        log("Chunks in memory: " + chunksInUse() + " of " + heapChunks.length + "\n\n");
+        free(ptr1);
+        free(ptr2);
+        free(ptr3);
+        coalescePass();
+        log("Violations: " + new HeapWalk(this).check(true) + "\n\n");
+        setLazyCommit(0);
+    }
+
+    public void test30() {
+        testHeader(30, true, "Heap limit of 16 KB, a reclaim callback frees a cached block, then another thread's free unblocks a waiting malloc.");
+        long[] cache = { malloc(5000) };
+        addReclaimer(size -> {
+            if (cache[0] != NULL) free(cache[0]);
+            cache[0] = NULL;
+        });
+        setHeapLimit(16384, 0);
+        long ptr1 = malloc(5000);
+        long ptr2 = malloc(5000);
+        log("Footprint: " + footprint() + " of " + getHeapLimit() + " bytes\n\n");
+        long ptr3 = malloc(5000);
+        log("ptr3 == -1: " + (ptr3 == NULL) + "\n\n");
+        reclaimers.clear();
+        setHeapLimit(16384, 2000);
+        Thread other = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (this) {
+                free(ptr1);
+            }
+        });
+        other.start();
+        long ptr4;
+        // Waiting releases the monitor, the other thread frees under it
+        synchronized (this) {
+            ptr4 = malloc(5000);
+        }
+        try {
+            other.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log("Footprint: " + footprint() + " of " + getHeapLimit() + " bytes\n\n");
+        free(ptr2);
+        free(ptr4);
+        setHeapLimit(0, 0);
+    }
+
+    public void test31() {
+        testHeader(31, true, "Flight recorder events of three mallocs and frees, a coalescing pass and an sbrk, counted per event type.");
+        setFlightRecorder(true);
+        try {
+            TreeMap<String, Integer> counts = AllocEvents.record(() -> {
+                long ptr1 = malloc(24);
+                long ptr2 = malloc(24);
+                long ptr3 = malloc(100);
+                free(ptr1);
+                free(ptr2);
+                free(ptr3);
+                coalescePass();
+                free(malloc((int) memorySize));
+            });
+            log("Events: " + counts + "\n\n");
+        } catch (IOException e) {
+            log("Recording failed: " + e.getMessage() + "\n\n");
+        }
+        setFlightRecorder(false);
+    }
+
+    public void test32() {
+        testHeader(32, true, "Coalescing repeats, a bin merge lands in misc after misc was searched and still merges with its free neighbour.");
+        long guard1 = malloc(8);
+        long ptr1 = malloc(32);
+        long ptr2 = malloc(112);
+        long ptr3 = malloc(56);
+        long guard2 = malloc(8);
+        free(ptr1);
+        free(ptr2);
+        free(ptr3);
+        // The 64 byte bin merges ptr3 into ptr2 (184 bytes, misc), whose left neighbour ptr1 sits in the 40 byte bin
+        coalescePass();
+        log("Block at " + integerToHex(ptr1) + ": " + ((FlaggedByte) getByte(ptr1-WORD)).length + " bytes\n\n");
+        log("Violations: " + new HeapWalk(this).check(true) + "\n\n");
+        free(guard1);
+        free(guard2);
+    }
+
+    public void test33() {
+        testHeader(33, true, "Sweepable knobs, 4 quick lists and doubling sbrk growth.");
+        setQuickLists(4);
+        setGrowth(Growth.DOUBLING);
+        long ptr1 = malloc(24);
+        long ptr2 = malloc(40);
+        log("Bins: " + bins.length + ", 24 bytes quick: " + isQuickSize(blockSize(24)) + ", 40 bytes quick: " + isQuickSize(blockSize(40)) + "\n\n");
+        long[] ptrs = new long[3];
+        for (int i = 0; i < ptrs.length; i++) ptrs[i] = malloc((int) memorySize/2);
+        StringBuilder sizes = new StringBuilder();
+        for (Byte[] extension : heapExtensions) sizes.append(extension.length).append(" ");
+        log("Extensions: " + sizes.toString().trim() + "\n\n");
+        free(ptr1);
+        free(ptr2);
+        for (long ptr : ptrs) free(ptr);
+        setGrowth(Growth.FIT);
+        setQuickLists(16);
+    }
+
+    public void test34() {
+        testHeader(34, true, "Incremental compaction interleaved with a coalescing pass that merges the gap at the cursor.");
+        int h1 = allocHandle(100);
+        int h2 = allocHandle(300);
+        int h3 = allocHandle(200);
+        freeHandle(h1);
+        compact(2);
+        log("After 2 steps, h2: " + integerToHex(resolve(h2)) + ", h3: " + integerToHex(resolve(h3)) + "\n\n");
+        freeHandle(h2);
+        coalescePass();
+        boolean done = compact(5);
+        log("Pass finished: " + done + ", h3: " + integerToHex(resolve(h3)) + ", tail: " + integerToHex(tail) + "\n\n");
+        log("Violations: " + new HeapWalk(this).check(true) + "\n\n");
+        freeHandle(h3);
+    }
+
+    public void test35() {
+        testHeader(35, true, "Reservations over 1 GB, refused below the 32-bit large object area, lazily committed in 64-bit mode.");
+        try {
+            new MemoryMgmt(0x60000000L, 4, 1 << 20);
+        } catch (IllegalArgumentException e) {
+            log(e.getMessage() + "\n\n");
+        }
+        MemoryMgmt huge = new MemoryMgmt(0x60000000L, 8, 1 << 20);
+        huge.setVerbose(verbose);
+        long ptr = huge.malloc(0x41000000);
+        log("Block at " + huge.integerToHex(ptr) + ", committed: " + huge.getCommittedSize() + " bytes, chunks in memory: " + huge.chunksInUse() + " of " + huge.heapChunks.length + "\n\n");
+        huge.free(ptr);
+        huge.coalescePass();
+        log("Violations: " + new HeapWalk(huge).check(true) + "\n\n");
+    }
+}
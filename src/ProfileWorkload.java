@@ -0,0 +1,24 @@
+/*
+ * Two allocating call sites outside the allocator for the profiler test
+ * The profiler skips every frame of an allocator class, so mallocs issued from a test method of the
+ * engine itself all land on whatever called print(), these give them separate sites
+ */
+package src;
+
+public class ProfileWorkload {
+
+    // @count small records, kept alive by the caller
+    public static long[] records(Allocator allocator, int count) {
+        long[] ptrs = new long[count];
+        for (int i = 0; i < count; i++) ptrs[i] = allocator.malloc(24);
+        return ptrs;
+    }
+
+    // @count buffers of @size bytes, every other one freed again right away
+    public static void buffers(Allocator allocator, int count, int size) {
+        long[] ptrs = new long[count];
+        for (int i = 0; i < count; i++) ptrs[i] = allocator.malloc(size);
+        for (int i = 0; i < count; i += 2) allocator.free(ptrs[i]);
+    }
+
+}
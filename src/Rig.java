@@ -18,6 +18,12 @@ public class Rig {
     
     public static void main(String[] args) {
 
+        // Arguments skip the menu, see Headless
+        if (args.length > 0) {
+            Headless.main(args);
+            return;
+        }
+
         while (true) {
 
             System.out.println("\r\n=======================");
@@ -47,13 +53,15 @@ public class Rig {
             
             switch (selectedOption) {
                 case 1: // single sensor
+                String engine = inputEngine();
                 System.out.println("Setting up problem...");
-                rig.problem = new Freestyle(); 
+                rig.problem = new Freestyle(engine); 
                 break;
                 case 2: // multiple sensors
                 boolean GUI = inputGUI();
+                engine = inputEngine();
                 System.out.println("Setting up problem...");
-                rig.problem = new Tests(GUI);
+                rig.problem = new Tests(GUI, engine);
                 break;
                 default:
                 System.out.println("I don't know what '" + line + "' is, please input a valid option." );
@@ -96,6 +104,29 @@ public class Rig {
         }
         return GUI;
     }
+
+    public static String inputEngine() {
+        String engine = "quick";
+        while (true) {
+            System.out.print("Engine [quick/buddy/tlsf/side]: " );
+            BufferedReader buffer = new BufferedReader(new InputStreamReader(System.in));
+            String line = "";
+            try {
+                line = buffer.readLine();
+                System.out.println();
+                if (line.equals("quick") || line.equals("buddy") || line.equals("tlsf") || line.equals("side")) {
+                    engine = line;
+                    break;
+                }
+                System.out.println("I don't know what '" + line + "' is, please quick, buddy, tlsf or side." );
+                continue;
+            } catch (IOException e) {
+                System.out.println("IOException, quitting...");
+                break;
+            }
+        }
+        return engine;
+    }
 }
 
 
@@ -0,0 +1,549 @@
+/*
+ * Quick fit with lazy coalescing and out-of-band metadata
+ * Same policy as MemoryMgmt (exact-size bins, tail, misc first fit, coalescing pass on failure, sbrk),
+ * but no block carries tags or list pointers: sizes, states and free list links live in a side table,
+ * one entry per granule (2 words), kept as parallel arrays
+ * The heap only ever holds payload, a block starts at its pointer and every granule of it is usable
+ * Free list walks and the coalescing pass stream through the dense table instead of striding across the heap
+ * Compaction, checkpoints, compact tags and large object mapping are MemoryMgmt only
+ * Sources: Evans, J. A Scalable Concurrent malloc(3) Implementation for FreeBSD (jemalloc), BSDCan 2006 (page maps)
+ */
+package src;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import src.MemoryMgmt.Byte;
+import src.MemoryMgmt.FlaggedByte;
+import src.MemoryMgmt.LengthType;
+import src.MemoryMgmt.MemoryError;
+
+public class SideTableAllocator implements Allocator {
+
+    Visualize visualize;                    // GUI
+
+    private boolean verbose = true;         // Tracing every operation to stdout
+
+    private final int WORD;
+    private final int NULL = -1;
+
+    private final int GRANULE;              // Smallest block and unit of the side table, keeps the quick fit alignment
+
+    private final int BINS = 16;            // Exact-size bins for blocks of 1 .. @BINS granules
+
+    private final long ADDRESS_LIMIT;
+
+    // Block states in the side table, 0 for granules inside a block
+    private static final byte USED = 1;
+    private static final byte BINNED = 2;   // Free, in the bin of its size
+    private static final byte MISC = 3;     // Free, in the misc list
+    private static final byte TAIL = 4;     // Free, untouched end of the main heap
+
+    private long memorySize;
+
+    // Segments by start address, the main heap at 0 and sbrk extensions after it (payload only)
+    private TreeMap<Long, Byte[]> segments;
+
+    private long extensionTop;              // Next unused address after the last extension
+
+    /*
+     * Side table, indexed by granule (address / @GRANULE)
+     * Only the entry of a block's first granule is set
+     * Links are granule indices, @NULL terminated, and only meaningful for listed free blocks
+     */
+    private int[] sizes;                    // Block length in granules
+    private byte[] states;
+    private int[] next;
+    private int[] prev;
+
+    private int[] bins;                     // Bin heads by size in granules
+    private int misc;                       // Misc list head, blocks over @BINS granules and extensions
+    private int tail;                       // Tail block, @NULL once the main heap is used up
+
+    public SideTableAllocator(long memorySize, int wordSize) {
+
+        if (wordSize != 4 && wordSize != 8) throw new IllegalArgumentException("Word size must be 4 or 8 bytes.");
+
+        WORD = wordSize;
+        GRANULE = 2*WORD;
+        ADDRESS_LIMIT = WORD == 8 ? 1L << 48 : 1L << 32;
+
+        if (memorySize < GRANULE || memorySize > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Main heap of " + memorySize + " bytes is not supported with " + WORD + " byte words.");
+        }
+
+        this.memorySize = memorySize;
+        visualize = null;
+        initializeMemory();
+    }
+
+    public String name() {
+        return "side";
+    }
+
+    /*
+     * 1. Bin of the exact size
+     * 2. Tail
+     * 3. Misc, first fit
+     * 4. [Nothing fits] Coalescing pass over the side table -> go to 1.
+     * 5. [Still nothing] Request for more memory (sbrk) -> go to 1.
+     */
+    public long malloc(int size) {
+
+        log("Requesting " + size + " bytes of memory ... ");
+
+        if (size <= 0) {
+            log("Exception triggered in thread. Exiting.\n\n");
+            return NULL;
+        }
+
+        int granules = (int) (((long) size + GRANULE-1) / GRANULE);
+
+        int block = findBlock(granules);
+
+        if (block == NULL) {
+            coalesce();
+            block = findBlock(granules);
+        }
+
+        if (block == NULL) {
+
+            log("\nMemory limit exceeded, requesting further memory blocks ... ");
+
+            sbrk(granules*GRANULE);
+
+            block = findBlock(granules);
+
+            if (block == NULL) throw new MemoryError("Memory request failed.");
+        }
+
+        states[block] = USED;
+
+        long ptr = (long) block*GRANULE;
+
+        log("memory allocated.\n");
+        log("Pointer: " + integerToHex(ptr) + "\n\n");
+
+        refreshGUI(ptr, sizes[block]*GRANULE, 'U');
+
+        return ptr;
+    }
+
+    // Lazy, the block goes to its list as it is, neighbours are merged by the next coalescing pass
+    public void free(long ptr) {
+
+        log("Freeing pointer " + integerToHex(ptr) + " ... ");
+
+        // Invalid pointers and double frees
+        if (!isAllocated(ptr)) {
+            log("Exception triggered in thread. Exiting.\n\n");
+            return;
+        }
+
+        int block = (int) (ptr / GRANULE);
+
+        addToList(block);
+
+        log("memory freed.\n\n");
+
+        refreshGUI(ptr, sizes[block]*GRANULE, 'F');
+    }
+
+    /*
+     * One new segment of at least @size bytes (a power of two), appended after the last extension
+     * Its single free block goes to misc, whatever its size
+     */
+    public Byte[] sbrk(int size) {
+
+        if (size > 1 << 30) throw new MemoryError("Memory request failed.");
+
+        int length = Math.max(GRANULE, Integer.highestOneBit(Math.max(size-1, 1)) << 1);
+
+        if (extensionTop + length > ADDRESS_LIMIT || (extensionTop + length) / GRANULE > Integer.MAX_VALUE - 8) {
+            throw new MemoryError("Heap address space exhausted.");
+        }
+
+        Byte[] extension = new Byte[length];
+
+        long base = extensionTop;
+        extensionTop += length;
+
+        segments.put(base, extension);
+        grow((int) (extensionTop / GRANULE));
+
+        int block = (int) (base / GRANULE);
+        sizes[block] = length / GRANULE;
+        link(block, MISC);
+
+        if (visualize != null) visualize.segmentMapped(base, length);
+        refreshGUI(base, length, 'F');
+
+        return extension;
+    }
+
+    public boolean isAllocated(long ptr) {
+        if (ptr < 0 || ptr % GRANULE != 0 || ptr / GRANULE >= states.length) return false;
+        return states[(int) (ptr / GRANULE)] == USED;
+    }
+
+    // Payload bytes of the allocated block at @ptr, the whole block
+    public int usableSize(long ptr) {
+        if (!isAllocated(ptr)) {
+            throw new MemoryError("Segmentation fault: " + integerToHex(ptr) + " is not an allocated block.");
+        }
+        return sizes[(int) (ptr / GRANULE)]*GRANULE;
+    }
+
+    // First block of at least @granules, unlinked and split down to @granules
+    private int findBlock(int granules) {
+
+        if (granules <= BINS && bins[granules] != NULL) {
+            int block = bins[granules];
+            unlink(block);
+            return block;
+        }
+
+        if (tail != NULL && sizes[tail] >= granules) {
+            int block = tail;
+            tail = NULL;
+            split(block, granules);
+            return block;
+        }
+
+        for (int block = misc; block != NULL; block = next[block]) {
+            if (sizes[block] >= granules) {
+                unlink(block);
+                split(block, granules);
+                return block;
+            }
+        }
+
+        return NULL;
+    }
+
+    // The remainder after @granules goes back as a free block, the tail stays the tail
+    private void split(int block, int granules) {
+
+        int remainder = sizes[block] - granules;
+        if (remainder == 0) return;
+
+        boolean wasTail = states[block] == TAIL;
+
+        sizes[block] = granules;
+        sizes[block+granules] = remainder;
+
+        if (wasTail) {
+            states[block+granules] = TAIL;
+            tail = block+granules;
+        } else {
+            addToList(block+granules);
+        }
+
+        refreshGUI((long) (block+granules)*GRANULE, remainder*GRANULE, 'F');
+    }
+
+    /*
+     * Merges every run of adjacent free blocks, one sequential scan of @sizes and @states per segment
+     * A run touching the tail becomes the tail
+     */
+    private void coalesce() {
+
+        log("\nCoalescing free blocks ... ");
+
+        int merged = 0;
+
+        for (Map.Entry<Long, Byte[]> segment : segments.entrySet()) {
+
+            int block = (int) (segment.getKey() / GRANULE);
+            int end = block + segment.getValue().length / GRANULE;
+
+            while (block < end) {
+
+                int following = block + sizes[block];
+
+                // Used, or a free block on its own
+                if (states[block] == USED || following >= end || states[following] == USED) {
+                    block = following;
+                    continue;
+                }
+
+                int start = block;
+                int total = 0;
+                boolean touchesTail = false;
+
+                while (block < end && states[block] != USED) {
+                    touchesTail |= states[block] == TAIL;
+                    unlink(block);
+                    int length = sizes[block];
+                    if (block != start) {
+                        sizes[block] = 0;
+                        states[block] = 0;
+                        merged++;
+                    }
+                    total += length;
+                    block += length;
+                }
+
+                sizes[start] = total;
+
+                if (touchesTail) {
+                    states[start] = TAIL;
+                    tail = start;
+                } else {
+                    addToList(start);
+                }
+
+                refreshGUI((long) start*GRANULE, total*GRANULE, 'F');
+            }
+        }
+
+        log(merged + " merged ... ");
+    }
+
+    private void addToList(int block) {
+        link(block, sizes[block] <= BINS ? BINNED : MISC);
+    }
+
+    // Pushes @block on the bin of its size or on misc
+    private void link(int block, byte state) {
+
+        states[block] = state;
+        prev[block] = NULL;
+
+        if (state == BINNED) {
+            next[block] = bins[sizes[block]];
+            if (next[block] != NULL) prev[next[block]] = block;
+            bins[sizes[block]] = block;
+        } else {
+            next[block] = misc;
+            if (misc != NULL) prev[misc] = block;
+            misc = block;
+        }
+    }
+
+    // O(1), the block's links are in the table
+    private void unlink(int block) {
+
+        if (states[block] == TAIL) {
+            tail = NULL;
+            return;
+        }
+
+        if (prev[block] != NULL) next[prev[block]] = next[block];
+        else if (states[block] == BINNED) bins[sizes[block]] = next[block];
+        else misc = next[block];
+
+        if (next[block] != NULL) prev[next[block]] = prev[block];
+    }
+
+    // Side table covering @granules, doubled so sbrk stays amortized O(1)
+    private void grow(int granules) {
+        if (granules <= sizes.length) return;
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(granules, 2L*sizes.length));
+        sizes = Arrays.copyOf(sizes, capacity);
+        states = Arrays.copyOf(states, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+    }
+
+    // Free blocks in the bins, in misc, and the tail length in bytes
+    public int[] getFreeBlocks() {
+        int binned = 0;
+        for (int size = 1; size <= BINS; size++) {
+            for (int block = bins[size]; block != NULL; block = next[block]) binned++;
+        }
+        int listed = 0;
+        for (int block = misc; block != NULL; block = next[block]) listed++;
+        return new int[] { binned, listed, tail == NULL ? 0 : sizes[tail]*GRANULE };
+    }
+
+    // Side table entries of the main heap, address, length and state per block
+    private String describeTable() {
+        StringBuilder builder = new StringBuilder();
+        int end = (int) (memorySize / GRANULE);
+        for (int block = 0; block < end; block += sizes[block]) {
+            builder.append("[").append(integerToHex((long) block*GRANULE)).append(" ").append(sizes[block]*GRANULE)
+                .append(" ").append("?UBMT".charAt(states[block])).append("] ");
+        }
+        return builder.toString().trim();
+    }
+
+    /*
+     * Helper methods
+     */
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    private void log(String message) {
+        if (verbose) System.out.print(message);
+    }
+
+    public void setGUI(Visualize visualize) {
+        this.visualize = visualize;
+    }
+
+    public void refreshGUI() {
+        if (visualize == null) return;
+        visualize.update();
+    }
+
+    public void refreshGUI(long block, int length, char flag) {
+        if (visualize == null) return;
+        visualize.block(block, length, flag);
+    }
+
+    public void initializeMemory() {
+
+        segments = new TreeMap<>();
+        segments.put(0L, new Byte[(int) memorySize]);
+
+        // A remainder below one granule stays unused
+        int granules = (int) (memorySize / GRANULE);
+
+        sizes = new int[granules];
+        states = new byte[granules];
+        next = new int[granules];
+        prev = new int[granules];
+
+        bins = new int[BINS+1];
+        Arrays.fill(bins, NULL);
+        misc = NULL;
+
+        sizes[0] = granules;
+        states[0] = TAIL;
+        tail = 0;
+
+        extensionTop = memorySize;
+    }
+
+    /*
+     * The payload cells and the side table are copied (O(heap size))
+     * Each block start reads as a LEN tag built from its table entry, a view-only cell
+     */
+    public HeapView snapshot() {
+
+        TreeMap<Long, Byte[]> copies = new TreeMap<>();
+        for (Map.Entry<Long, Byte[]> segment : segments.entrySet()) copies.put(segment.getKey(), segment.getValue().clone());
+
+        int[] sizes = this.sizes.clone();
+        byte[] states = this.states.clone();
+
+        return new HeapView() {
+
+            public Byte getByte(long pointer) {
+                Map.Entry<Long, Byte[]> segment = copies.floorEntry(pointer);
+                if (segment == null || pointer-segment.getKey() >= segment.getValue().length) return null;
+                if (pointer % GRANULE == 0 && pointer / GRANULE < sizes.length && sizes[(int) (pointer / GRANULE)] > 0) {
+                    int block = (int) (pointer / GRANULE);
+                    return new FlaggedByte(states[block] == USED ? 'U' : 'F', sizes[block]*GRANULE, LengthType.LEN);
+                }
+                return segment.getValue()[(int) (pointer-segment.getKey())];
+            }
+
+            public long getHeapSize() {
+                return memorySize;
+            }
+
+            public int[] getExtensionLengths() {
+                return copies.tailMap(memorySize).values().stream().mapToInt(segment -> segment.length).toArray();
+            }
+
+            public TreeMap<Long, Integer> getLargeObjects() {
+                return new TreeMap<>();
+            }
+
+            public BlockLayout getBlockLayout() {
+                return BlockLayout.OUT_OF_BAND;
+            }
+
+            public void close() {
+                copies.clear();
+            }
+        };
+    }
+
+    public int getWord() {
+        return WORD;
+    }
+
+    // Running tests
+    public void print() {
+        test1();
+        test2();
+        test3();
+        test4();
+        test5();
+    }
+
+    // Tests
+
+    public void testHeader(int number, boolean reset, String description) {
+        if (reset) {
+            initializeMemory();
+            refreshGUI();
+        }
+        log("===================================\n\n");
+        log("Running test number " + number + " ...\n\n");
+        log("Description: " + description + "\n\n");
+        log("Free blocks (bins, misc, tail bytes): " + Arrays.toString(getFreeBlocks()) + "\n\n");
+    }
+
+    public void test1() {
+        testHeader(1, true, "Splitting the tail, the heap holds no tags so a block is exactly its granules.");
+        long ptr1 = malloc(28);
+        long ptr2 = malloc(1);
+        long ptr3 = malloc(100);
+        log("usableSize(ptr1): " + usableSize(ptr1) + ", usableSize(ptr2): " + usableSize(ptr2) + ", usableSize(ptr3): " + usableSize(ptr3) + "\n\n");
+        log("Side table: " + describeTable() + "\n\n");
+        free(ptr1);
+        free(ptr2);
+        free(ptr3);
+    }
+
+    public void test2() {
+        testHeader(2, true, "Exact-size bins, a freed block is handed out again for the same size.");
+        long ptr1 = malloc(40);
+        long ptr2 = malloc(40);
+        free(ptr1);
+        long ptr3 = malloc(40);
+        log("ptr3 == ptr1: " + (ptr3 == ptr1) + "\n\n");
+        free(ptr2);
+        free(ptr3);
+    }
+
+    public void test3() {
+        testHeader(3, true, "Misc first fit, a large freed block is split and the remainder goes to a bin.");
+        long ptr1 = malloc(2000);
+        long ptr2 = malloc(6000);
+        free(ptr1);
+        long ptr3 = malloc(1960);
+        log("Side table: " + describeTable() + "\n\n");
+        free(ptr2);
+        free(ptr3);
+    }
+
+    public void test4() {
+        testHeader(4, true, "Lazy coalescing, the pass merges the freed blocks with the tail from the side table alone.");
+        long[] ptrs = new long[8];
+        for (int i = 0; i < ptrs.length; i++) ptrs[i] = malloc(1000);
+        for (long ptr : ptrs) free(ptr);
+        log("Free blocks (bins, misc, tail bytes): " + Arrays.toString(getFreeBlocks()) + "\n\n");
+        long ptr1 = malloc(8000);
+        log("Side table: " + describeTable() + "\n\n");
+        free(ptr1);
+    }
+
+    public void test5() {
+        testHeader(5, true, "Heap exhausted, sbrk extends the side table, then invalid pointers and double frees.");
+        long ptr1 = malloc(8000);
+        long ptr2 = malloc(3000);
+        log("Free blocks (bins, misc, tail bytes): " + Arrays.toString(getFreeBlocks()) + "\n\n");
+        free(ptr2+8);
+        free(ptr2);
+        free(ptr2);
+        free(ptr1);
+    }
+}
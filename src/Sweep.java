@@ -0,0 +1,345 @@
+/*
+ * Parameter sweep
+ * Every combination of the listed values runs on its own allocator instance, all cores busy (or @threads),
+ * with the same workload as the headless runner
+ * One row per configuration, in grid order as runs complete, as CSV or a JSON array
+ * Tuning knobs (quick lists, growth, refill, adapt, large, compact tags, parallel coalescing, commit) are quick fit setters:
+ * other engines only run with the defaults, their rows with other knob values are reported as skipped
+ * The minimum block size is not a knob: a free block needs its two tags and two list pointers (compact tags drop one tag)
+ *
+ * Usage: java src.Sweep [--engine quick,tlsf,...] [--heap 8192,65536] [--word 4,8]
+ *                       [--quick-lists 16,32] [--growth fit,doubling] [--refill 0,8] [--adapt 0,64] [--large 0,4096] [--compact-tags false,true]
+ *                       [--parallel-coalesce false,true] [--commit 0,4096]
+ *                       [--scenario random|tests] [--ops n] [--seed n] [--trace file]
+ *                       [--threads n] [--format csv|json]
+ *
+ * Exits 0 if every run succeeded or was skipped, 1 if any run failed and 2 on bad arguments
+ */
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Sweep {
+
+    private static final String USAGE = "Usage: java src.Sweep [--engine list] [--heap list] [--word list] [--quick-lists list] [--growth list] "
+        + "[--refill list] [--adapt list] "
+        + "[--large list] [--compact-tags list] [--parallel-coalesce list] [--commit list] "
+        + "[--scenario random|tests] [--ops n] [--seed n] [--trace file] [--threads n] [--format csv|json]";
+
+    private static final String CSV_HEADER = "quick_lists,growth,refill,adapt,large,compact_tags,parallel_coalesce,commit,ops_per_s," + Headless.Result.CSV_HEADER;
+
+    // Values per parameter, comma separated on the command line
+    List<String> engines = List.of("quick");
+    List<Long> heaps = List.of(8192L);
+    List<Integer> words = List.of(4);
+    List<Integer> quickLists = List.of(16);
+    List<MemoryMgmt.Growth> growths = List.of(MemoryMgmt.Growth.FIT);
+    List<Integer> refills = List.of(0);
+    List<Integer> adapts = List.of(0);
+    List<Integer> larges = List.of(0);
+    List<Boolean> compactTags = List.of(false);
+    List<Boolean> parallelCoalesces = List.of(false);
+    List<Integer> commits = List.of(0);
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    String format = "csv";
+
+    // Workload, shared read-only by every run (the engines' own tests reset the knobs, so random by default)
+    Headless workload = new Headless();
+
+    {
+        workload.scenario = "random";
+    }
+
+    public static void main(String[] args) {
+
+        System.setProperty("java.awt.headless", "true");
+
+        Sweep sweep;
+
+        try {
+            sweep = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        System.exit(sweep.run() ? 0 : 1);
+    }
+
+    public static Sweep parse(String[] args) {
+
+        Sweep sweep = new Sweep();
+
+        for (int i = 0; i < args.length; i++) {
+
+            if (i+1 == args.length) throw new IllegalArgumentException("Missing value for " + args[i] + ".");
+
+            String value = args[++i];
+
+            try {
+                switch (args[i-1]) {
+                    case "--engine":
+                        sweep.engines = List.of(value.split(","));
+                        break;
+                    case "--heap":
+                        sweep.heaps = parseLongs(value);
+                        break;
+                    case "--word":
+                        sweep.words = parseInts(value);
+                        break;
+                    case "--quick-lists":
+                        sweep.quickLists = parseInts(value);
+                        break;
+                    case "--growth":
+                        sweep.growths = parseGrowths(value);
+                        break;
+                    case "--refill":
+                        sweep.refills = parseInts(value);
+                        break;
+                    case "--adapt":
+                        sweep.adapts = parseInts(value);
+                        break;
+                    case "--large":
+                        sweep.larges = parseInts(value);
+                        break;
+                    case "--compact-tags":
+                        sweep.compactTags = parseBooleans(value);
+                        break;
+                    case "--parallel-coalesce":
+                        sweep.parallelCoalesces = parseBooleans(value);
+                        break;
+                    case "--commit":
+                        sweep.commits = parseInts(value);
+                        break;
+                    case "--threads":
+                        sweep.threads = Integer.parseInt(value);
+                        if (sweep.threads < 1) throw new IllegalArgumentException("Invalid value '" + value + "' for --threads.");
+                        break;
+                    case "--format":
+                        if (!value.equals("csv") && !value.equals("json")) throw new IllegalArgumentException("Unknown format '" + value + "'.");
+                        sweep.format = value;
+                        break;
+                    case "--scenario":
+                        if (!value.equals("tests") && !value.equals("random")) throw new IllegalArgumentException("Unknown scenario '" + value + "'.");
+                        sweep.workload.scenario = value;
+                        break;
+                    case "--ops":
+                        sweep.workload.operations = Integer.parseInt(value);
+                        break;
+                    case "--seed":
+                        sweep.workload.seed = Long.parseLong(value);
+                        break;
+                    case "--trace":
+                        sweep.workload.trace = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option '" + args[i-1] + "'.");
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value '" + value + "' for " + args[i-1] + ".");
+            }
+        }
+
+        return sweep;
+    }
+
+    private static List<Long> parseLongs(String value) {
+        ArrayList<Long> values = new ArrayList<>();
+        for (String item : value.split(",")) values.add(Long.parseLong(item));
+        return values;
+    }
+
+    private static List<Integer> parseInts(String value) {
+        ArrayList<Integer> values = new ArrayList<>();
+        for (String item : value.split(",")) values.add(Integer.parseInt(item));
+        return values;
+    }
+
+    private static List<MemoryMgmt.Growth> parseGrowths(String value) {
+        ArrayList<MemoryMgmt.Growth> values = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.equals("fit") && !item.equals("doubling")) throw new IllegalArgumentException("Invalid value '" + item + "', expected fit or doubling.");
+            values.add(MemoryMgmt.Growth.valueOf(item.toUpperCase(Locale.ROOT)));
+        }
+        return values;
+    }
+
+    private static List<Boolean> parseBooleans(String value) {
+        ArrayList<Boolean> values = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.equals("true") && !item.equals("false")) throw new IllegalArgumentException("Invalid value '" + item + "', expected true or false.");
+            values.add(Boolean.parseBoolean(item));
+        }
+        return values;
+    }
+
+    // Cartesian product of every parameter, engine varying slowest
+    public List<Config> grid() {
+        ArrayList<Config> grid = new ArrayList<>();
+        for (String engine : engines)
+            for (long heap : heaps)
+                for (int word : words)
+                    for (int quick : quickLists)
+                        for (MemoryMgmt.Growth growth : growths)
+                            for (int refill : refills)
+                                for (int adapt : adapts)
+                                    for (int large : larges)
+                                        for (boolean compact : compactTags)
+                                            for (boolean parallel : parallelCoalesces)
+                                                for (int commit : commits)
+                                                    grid.add(new Config(engine, heap, word, quick, growth, refill, adapt, large, compact, parallel, commit));
+        return grid;
+    }
+
+    // Runs the grid and prints the table, true if no run failed
+    public boolean run() {
+
+        List<Config> grid = grid();
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(grid.size(), 1)));
+
+        ArrayList<Future<Headless.Result>> results = new ArrayList<>();
+        for (Config config : grid) results.add(pool.submit(() -> runOne(config)));
+
+        boolean ok = true;
+
+        System.out.println(format.equals("json") ? "[" : CSV_HEADER);
+
+        for (int i = 0; i < grid.size(); i++) {
+
+            Headless.Result result;
+
+            try {
+                result = results.get(i).get();
+            } catch (InterruptedException | ExecutionException e) {
+                result = grid.get(i).result(workload, "failed", e.toString());
+            }
+
+            ok &= !result.status.equals("failed") && !result.status.equals("error");
+
+            System.out.println(row(grid.get(i), result) + (format.equals("json") && i+1 < grid.size() ? "," : ""));
+        }
+
+        if (format.equals("json")) System.out.println("]");
+
+        pool.shutdown();
+
+        return ok;
+    }
+
+    private Headless.Result runOne(Config config) {
+
+        Allocator allocator;
+
+        try {
+            allocator = config.create();
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            return config.result(workload, "skipped", e.getMessage());
+        }
+
+        Headless run = new Headless();
+        run.engine = config.engine;
+        run.memorySize = config.heap;
+        run.wordSize = config.word;
+        run.scenario = workload.scenario;
+        run.operations = workload.operations;
+        run.seed = workload.seed;
+        run.trace = workload.trace;
+
+        return run.run(allocator);
+    }
+
+    private String row(Config config, Headless.Result result) {
+
+        double opsPerSecond = result.elapsedNanos == 0 ? 0 : result.operations * 1e9 / result.elapsedNanos;
+
+        if (format.equals("json")) {
+            return "{\"quick_lists\":" + config.quickLists + ",\"growth\":\"" + growthName(config.growth) + "\""
+                + ",\"refill\":" + config.refill + ",\"adapt\":" + config.adapt + ",\"large\":" + config.large
+                + ",\"compact_tags\":" + config.compactTags + ",\"parallel_coalesce\":" + config.parallelCoalesce
+                + ",\"commit\":" + config.commit + ",\"ops_per_s\":" + String.format(Locale.ROOT, "%.0f", opsPerSecond)
+                + "," + result.toJson().substring(1);
+        }
+
+        return config.quickLists + "," + growthName(config.growth) + "," + config.refill + "," + config.adapt + "," + config.large + "," + config.compactTags + "," + config.parallelCoalesce
+            + "," + config.commit + "," + String.format(Locale.ROOT, "%.0f", opsPerSecond) + "," + result.toCsv();
+    }
+
+    private static String growthName(MemoryMgmt.Growth growth) {
+        return growth.name().toLowerCase(Locale.ROOT);
+    }
+
+    // One point of the grid
+    public static class Config {
+        public final String engine;
+        public final long heap;
+        public final int word;
+        public final int quickLists;
+        public final MemoryMgmt.Growth growth;
+        public final int refill;
+        public final int adapt;
+        public final int large;
+        public final boolean compactTags;
+        public final boolean parallelCoalesce;
+        public final int commit;
+
+        public Config(String engine, long heap, int word, int quickLists, MemoryMgmt.Growth growth, int refill, int adapt, int large,
+                      boolean compactTags, boolean parallelCoalesce, int commit) {
+            this.engine = engine;
+            this.heap = heap;
+            this.word = word;
+            this.quickLists = quickLists;
+            this.growth = growth;
+            this.refill = refill;
+            this.adapt = adapt;
+            this.large = large;
+            this.compactTags = compactTags;
+            this.parallelCoalesce = parallelCoalesce;
+            this.commit = commit;
+        }
+
+        private boolean defaults() {
+            return quickLists == 16 && growth == MemoryMgmt.Growth.FIT && refill == 0 && adapt == 0 && large == 0 && !compactTags && !parallelCoalesce && commit == 0;
+        }
+
+        // Fresh allocator with the knobs applied
+        Allocator create() {
+
+            if (!engine.equals("quick")) {
+                if (!defaults()) throw new UnsupportedOperationException("Tuning knobs only apply to the quick engine.");
+                return Allocator.create(engine, heap, word);
+            }
+
+            MemoryMgmt memoryMgmt = new MemoryMgmt(heap, word, commit);
+            if (compactTags) memoryMgmt.setCompactTags(true);
+            if (quickLists != memoryMgmt.getQuickLists()) memoryMgmt.setQuickLists(quickLists);
+            memoryMgmt.setGrowth(growth);
+            memoryMgmt.setBinRefill(refill);
+            memoryMgmt.setAdaptiveQuickLists(adapt);
+            memoryMgmt.setLargeThreshold(large);
+            memoryMgmt.setParallelCoalesce(parallelCoalesce);
+            return memoryMgmt;
+        }
+
+        // Row for a configuration that did not run
+        Headless.Result result(Headless workload, String status, String message) {
+            Headless.Result result = new Headless.Result();
+            result.engine = engine;
+            result.memorySize = heap;
+            result.wordSize = word;
+            result.scenario = workload.trace != null ? "trace" : workload.scenario;
+            result.status = status;
+            result.message = message != null ? message : "";
+            return result;
+        }
+    }
+}
@@ -2,12 +2,18 @@ package src;
 
 public class Tests implements Problem {
 
-    MemoryMgmt memoryMgmt;
+    Allocator memoryMgmt;
     Visualize visualize;
     boolean GUIFlag;
+    String engine;
 
     public Tests(boolean GUIFlag) {
+        this(GUIFlag, "quick");
+    }
+
+    public Tests(boolean GUIFlag, String engine) {
         this.GUIFlag = GUIFlag;
+        this.engine = engine;
     }
 
     public String name() {
@@ -15,16 +21,19 @@ public class Tests implements Problem {
     }
 
     public void init() {
-        memoryMgmt = new MemoryMgmt(8192);
+        memoryMgmt = Allocator.create(engine, 8192, 4);
         if (GUIFlag) {
-            visualize = new Visualize(memoryMgmt);
+            visualize = new Visualize(memoryMgmt, Visualize.Speed.PACED);
             memoryMgmt.setGUI(visualize);
         }
     }
 
     public void go() {
         memoryMgmt.print();
-        if (visualize != null) visualize.closeFrame();
+        if (visualize != null) {
+            visualize.awaitReplay();
+            visualize.closeFrame();
+        }
     }
     
 }
@@ -0,0 +1,402 @@
+/*
+ * Two-level segregated fit (TLSF)
+ * Runs on the MemoryMgmt boundary-tag heap and sbrk extensions, only the free block index differs:
+ * free blocks are kept in size classes, the first level by power of two and the second level
+ * splitting every power of two into @SL_COUNT linear steps
+ * One bitmap of non-empty first-level classes and one per first level of non-empty second-level classes
+ * turn the search for a fitting class into two bit scans, so malloc and free are O(1)
+ * Free coalesces immediately with both neighbours, there is no tail, no bins and no misc
+ * Every quick fit only API (handles and compaction, regions, checkpoints, tuning knobs, ...) rejects this engine,
+ * see MemoryMgmt.requireQuickFit; the heap limit fails malloc with a MemoryError, without reclaiming or waiting
+ * Sources: Masmano, M., Ripoll, I., Crespo, A., Real, J. TLSF: a New Dynamic Memory Allocator for Real-Time Systems, ECRTS 2004
+ */
+package src;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class TlsfAllocator extends MemoryMgmt {
+
+    private static final int SL_LOG = 4;
+    private static final int SL_COUNT = 1 << SL_LOG;    // Second-level classes per power of two
+    private static final int FL_COUNT = 31;             // Block lengths are ints
+
+    /*
+     * Free list heads by class, index = first level * @SL_COUNT + second level
+     * Lists are doubly linked through the same (prev, next) cells as the quick fit lists
+     * Initialized in initializeMemory(), which already runs from the MemoryMgmt constructor
+     */
+    private long[] heads;
+
+    private int flBitmap;                   // Bit fl set if any class of first level fl is non-empty
+
+    private int[] slBitmaps;                // Bit sl of slBitmaps[fl] set if class (fl, sl) is non-empty
+
+    public TlsfAllocator(long memorySize, int wordSize) {
+        super(memorySize, wordSize);
+    }
+
+    public TlsfAllocator(int memorySize) {
+        this(memorySize, 4);
+    }
+
+    @Override
+    public String name() {
+        return "tlsf";
+    }
+
+    /*
+     * 1. Bit scan for the first non-empty class whose blocks all fit
+     * 2. Split off the remainder, straight back into its class
+     * 3. [Nothing free] Request for more memory (sbrk) and carve the new block
+     */
+    @Override
+    public long malloc(int size) {
+
+        log("Requesting " + size + " bytes of memory ... ");
+
+        if (size <= 0) {
+            log("Exception triggered in thread. Exiting.\n\n");
+            return NULL;
+        }
+
+        int actualSize = blockSize(size);
+
+        long block = findBlock(actualSize);
+
+        if (block != NULL) {
+            removeFromList(block, length(block));
+        } else {
+            log("\nMemory limit exceeded, requesting further memory blocks ... ");
+
+            // The new block is taken as is, it may be too small for the rounded-up class search
+            block = extend(actualSize);
+        }
+
+        allocateBlock(block, actualSize);
+
+        log("memory allocated.\n");
+        log("Pointer: " + integerToHex(block+2*WORD) + "\n\n");
+
+        return block+2*WORD;
+    }
+
+    // Merges with the free neighbours on both sides before listing the block
+    @Override
+    public void free(long ptr) {
+
+        if (ptr <= WORD) {
+            log("Invalid pointer ... Exception triggered in thread. Exiting.\n\n");
+            return;
+        }
+
+        log("Freeing pointer " + integerToHex(ptr) + " ... ");
+
+        // Invalid pointers and double frees
+        if (!isAllocated(ptr)) {
+            log("Exception triggered in thread. Exiting.\n\n");
+            return;
+        }
+
+        markAllocated(ptr, false);
+
+        long block = ptr-2*WORD;
+        int size = length(block);
+
+        // The previous block's footer sits right before our header, the start sentinel is never free
+        FlaggedByte before = (FlaggedByte) getByte(block);
+        if (before.flag == 'F') {
+            long previous = block - before.length;
+            removeFromList(previous, before.length);
+            setByte(block, null);
+            setByte(block+WORD, null);
+            block = previous;
+            size += before.length;
+        }
+
+        // The end sentinel is never free either, so merges stay within their segment
+        FlaggedByte after = (FlaggedByte) getByte(block+size+WORD);
+        if (after.flag == 'F') {
+            long next = block+size;
+            removeFromList(next, after.length);
+            setByte(next, null);
+            setByte(next+WORD, null);
+            setByte(next+2*WORD, null);
+            setByte(next+3*WORD, null);
+            size += after.length;
+        }
+
+        setByte(block+WORD, new FlaggedByte('F', size, LengthType.LEN));
+        setByte(block+size, new FlaggedByte('F', size, LengthType.PLEN));
+
+        addToList(block, size);
+
+        log("memory freed.\n\n");
+
+        refreshGUI(block, size, 'F');
+    }
+
+    @Override
+    public Byte[] sbrk(int size) {
+        long block = extend(size);
+        addToList(block, length(block));
+        return getHeapExtensions().getLast();
+    }
+
+    /*
+     * Marks @size bytes of the unlisted free @block as allocated
+     * A remainder too small for a free block stays in the allocation
+     */
+    private void allocateBlock(long block, int size) {
+
+        int blockSize = length(block);
+
+        if (blockSize - size < 4*WORD) size = blockSize;
+
+        setByte(block+WORD, new FlaggedByte('U', size, LengthType.LEN));
+        setByte(block+size, new FlaggedByte('U', size, LengthType.PLEN));
+        setByte(block+2*WORD, null);
+        setByte(block+3*WORD, null);
+
+        markAllocated(block+2*WORD, true);
+
+        refreshGUI(block, size, 'U');
+
+        if (blockSize != size) {
+            setByte(block+size+WORD, new FlaggedByte('F', blockSize-size, LengthType.LEN));
+            ((FlaggedByte) writeByte(block+blockSize)).length = blockSize-size;
+            addToList(block+size, blockSize-size);
+            refreshGUI(block+size, blockSize-size, 'F');
+        }
+    }
+
+    /*
+     * Class index of a block length
+     * First level: position of the highest set bit, second level: the @SL_LOG bits below it
+     * Lengths are at least 4 WORDS (16 bytes), so there are always @SL_LOG bits below the highest one
+     */
+    private int classOf(int length) {
+        int fl = 31 - Integer.numberOfLeadingZeros(length);
+        int sl = (length >>> (fl - SL_LOG)) & (SL_COUNT-1);
+        return fl*SL_COUNT + sl;
+    }
+
+    /*
+     * First block of the smallest non-empty class where every block is at least @size bytes
+     * @size is rounded up to the next class boundary, so the head of any class found fits (good fit)
+     */
+    private long findBlock(int size) {
+
+        int fl = 31 - Integer.numberOfLeadingZeros(size);
+        long rounded = size + (1L << (fl - SL_LOG)) - 1;
+
+        if (rounded > Integer.MAX_VALUE) return NULL;
+
+        int index = classOf((int) rounded);
+        fl = index / SL_COUNT;
+
+        // Classes of the same first level from the rounded one upwards
+        int slMap = slBitmaps[fl] & (-1 << (index % SL_COUNT));
+
+        if (slMap == 0) {
+            // Any class of a higher first level
+            int flMap = fl+1 < FL_COUNT ? flBitmap & (-1 << (fl+1)) : 0;
+            if (flMap == 0) return NULL;
+            fl = Integer.numberOfTrailingZeros(flMap);
+            slMap = slBitmaps[fl];
+        }
+
+        return heads[fl*SL_COUNT + Integer.numberOfTrailingZeros(slMap)];
+    }
+
+    private void addToList(long block, int length) {
+
+        int index = classOf(length);
+
+        setByte(block+2*WORD, new PointerByte(NULL));
+        setByte(block+3*WORD, new PointerByte(heads[index]));
+
+        if (heads[index] != NULL) ((PointerByte) writeByte(heads[index]+2*WORD)).pointer = block;
+
+        heads[index] = block;
+
+        flBitmap |= 1 << (index / SL_COUNT);
+        slBitmaps[index / SL_COUNT] |= 1 << (index % SL_COUNT);
+    }
+
+    // Unlinks through the block's own pointers, no list walk
+    private void removeFromList(long block, int length) {
+
+        int index = classOf(length);
+
+        long prev = ((PointerByte) getByte(block+2*WORD)).pointer;
+        long next = ((PointerByte) getByte(block+3*WORD)).pointer;
+
+        if (prev == NULL) heads[index] = next;
+        else ((PointerByte) writeByte(prev+3*WORD)).pointer = next;
+
+        if (next != NULL) ((PointerByte) writeByte(next+2*WORD)).pointer = prev;
+
+        if (heads[index] == NULL) {
+            slBitmaps[index / SL_COUNT] &= ~(1 << (index % SL_COUNT));
+            if (slBitmaps[index / SL_COUNT] == 0) flBitmap &= ~(1 << (index / SL_COUNT));
+        }
+    }
+
+    private int length(long block) {
+        return ((FlaggedByte) getByte(block+WORD)).length;
+    }
+
+    // The MemoryMgmt heap with its tail handed over to the index
+    @Override
+    public void initializeMemory() {
+
+        super.initializeMemory();
+
+        heads = new long[FL_COUNT*SL_COUNT];
+        Arrays.fill(heads, NULL);
+        flBitmap = 0;
+        slBitmaps = new int[FL_COUNT];
+
+        long block = detachTail();
+        addToList(block, length(block));
+    }
+
+    // Number of free blocks per first level
+    public int[] getFreeBlocks() {
+        int[] counts = new int[FL_COUNT];
+        for (int index = 0; index < heads.length; index++) {
+            for (long current = heads[index]; current != NULL; current = ((PointerByte) getByte(current+3*WORD)).pointer) {
+                counts[index / SL_COUNT]++;
+            }
+        }
+        return counts;
+    }
+
+    public int getFirstLevelBitmap() {
+        return flBitmap;
+    }
+
+    // Every free block sits in some class list, so HeapWalk expects them all under 0 (no bins)
+    @Override
+    public boolean isQuickSize(int blockSize) {
+        return false;
+    }
+
+    @Override
+    public HashMap<Long, Integer> listMembership() {
+        HashMap<Long, Integer> membership = new HashMap<>();
+        for (long head : heads) {
+            for (long current = head; current != NULL; current = ((PointerByte) getByte(current+3*WORD)).pointer) {
+                membership.put(current, 0);
+            }
+        }
+        return membership;
+    }
+
+    // Free lists, deferred coalescing and everything built on them stay quick fit only
+    @Override
+    protected boolean isQuickFit() {
+        return false;
+    }
+
+    // Running tests
+    @Override
+    public void print() {
+        test1();
+        test2();
+        test3();
+        test4();
+        test5();
+        test6();
+    }
+
+    // Tests
+
+    @Override
+    public void testHeader(int number, boolean reset, String description) {
+        if (reset) {
+            initializeMemory();
+            refreshGUI();
+        }
+        log("===================================\n\n");
+        log("Running test number " + number + " ...\n\n");
+        log("Description: " + description + "\n\n");
+        log("First-level bitmap: " + Integer.toBinaryString(flBitmap) + "\n\n");
+    }
+
+    @Override
+    public void test1() {
+        testHeader(1, true, "Splitting, a 28 byte request is cut from the heap and the remainder goes back to its class.");
+        long ptr1 = malloc(28);
+        log("usableSize(ptr1): " + usableSize(ptr1) + ", first-level bitmap: " + Integer.toBinaryString(flBitmap) + "\n\n");
+        free(ptr1);
+    }
+
+    @Override
+    public void test2() {
+        testHeader(2, true, "Immediate coalescing, freeing a block between two free ones leaves a single free block.");
+        long ptr1 = malloc(100);
+        long ptr2 = malloc(100);
+        long ptr3 = malloc(100);
+        long ptr4 = malloc(100);
+        free(ptr1);
+        free(ptr3);
+        log("Free blocks per first level: " + Arrays.toString(getFreeBlocks()) + "\n\n");
+        free(ptr2);
+        log("Free blocks per first level: " + Arrays.toString(getFreeBlocks()) + "\n\n");
+        free(ptr4);
+        log("Free blocks per first level: " + Arrays.toString(getFreeBlocks()) + "\n\n");
+    }
+
+    @Override
+    public void test3() {
+        testHeader(3, true, "Good fit, a request skips a free block that is too small and takes the next class.");
+        long ptr1 = malloc(200);
+        long ptr2 = malloc(40);
+        long ptr3 = malloc(400);
+        long ptr4 = malloc(40);
+        free(ptr1);
+        free(ptr3);
+        long ptr5 = malloc(300);
+        log("ptr5 == ptr3: " + (ptr5 == ptr3) + "\n\n");
+        free(ptr2);
+        free(ptr4);
+        free(ptr5);
+    }
+
+    @Override
+    public void test4() {
+        testHeader(4, true, "Heap exhausted, sbrk maps an extension that never merges with the main heap.");
+        long ptr1 = malloc(5000);
+        long ptr2 = malloc(3000);
+        long ptr3 = malloc(3000);
+        free(ptr2);
+        free(ptr1);
+        free(ptr3);
+        log("Free blocks per first level: " + Arrays.toString(getFreeBlocks()) + "\n\n");
+    }
+
+    @Override
+    public void test5() {
+        testHeader(5, true, "Invalid pointers and double frees.");
+        long ptr1 = malloc(40);
+        free(ptr1+8);
+        free(ptr1);
+        free(ptr1);
+    }
+
+    public void test6() {
+        testHeader(6, true, "Quick fit only APIs reject the engine, turning a knob off is still accepted.");
+        setLargeThreshold(0);
+        setBinRefill(0);
+        Runnable[] calls = { () -> allocHandle(40), () -> openRegion(), () -> setLargeThreshold(4096), () -> coalescePass() };
+        for (Runnable call : calls) {
+            try {
+                call.run();
+            } catch (UnsupportedOperationException e) {
+                log(e.getMessage() + "\n\n");
+            }
+        }
+    }
+}
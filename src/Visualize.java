@@ -1,51 +1,463 @@
 package src;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.JScrollBar;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
+import java.awt.BorderLayout;
 import java.awt.Color;
-import java.awt.Image;
+import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+/*
+ * Incremental heap renderer
+ * Keeps a one byte per cell state model of every segment (main heap, sbrk extensions, large objects)
+ * Only dirty address ranges are redrawn, into a reused back buffer
+ * Runs of identical state are drawn as single spans
+ * Zoom (bytes per pixel) with '+'/'-' or ctrl + wheel, scroll with the wheel or the scroll bar
+ *
+ * The allocator never waits for the GUI:
+ * it publishes change events to a lock-free queue that the Swing thread replays
+ * 'r' real time, 'p' paced, 's' step (space for next event), 'f' fast-forward, '['/']' slower/faster
+ * When replay falls behind, all due events are applied and only the last frame is drawn
+ */
 public class Visualize {
-    
+
     private Frame frame;
 
-    private MemoryMgmt memoryMgmt;
+    private Allocator allocator;
+
+    // Block layout of the last snapshot, the block events after it follow the same layout
+    private HeapView.BlockLayout layout = HeapView.BlockLayout.BOUNDARY_TAGS;
+
+    private final int WORD;
+
+    // Cell states
+    private static final byte EMPTY = 0;
+    private static final byte META  = 1;
+    private static final byte USED  = 2;
+    private static final byte FREE  = 3;
+
+    private static final Color[] COLORS = {
+        Color.BLACK,
+        new Color(0, 0, 255),
+        new Color(255, 0, 0),
+        new Color(0, 255, 0)
+    };
+
+    private static final int ROW_HEIGHT = 30;
+    private static final int MAX_SAMPLES = 64;     // Cells sampled per pixel when zoomed out
+
+    private static final int TICK = 15;             // Replay timer period (ms)
+    private static final int MAX_BACKLOG = 4096;    // Real time replay skips ahead beyond this many queued events
+
+    public enum Speed {
+        REAL_TIME, PACED, STEP, FAST_FORWARD;
+    }
+
+    private Speed speed = Speed.REAL_TIME;
+
+    private double rate = 1.0;          // Real time replay factor
+    private int pace = 1000;            // Paced replay, ms per event
+
+    private ConcurrentLinkedQueue<Event> events;
+
+    // Real time anchor, event time matched to wall time
+    private long anchorEvent = -1;
+    private long anchorWall;
+    private long lastApplied;
+
+    // Segments in address order, laid out back to back (Swing thread only)
+    private ArrayList<Strip> strips;
+
+    private int cells;                  // Total displayed cells
+
+    private int zoom = 1;               // Bytes per pixel
+    private int firstRow = 0;
 
-    private final int WORD; 
+    // Display range waiting to be redrawn into the back buffer
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo = -1;
+    private boolean fullRedraw = true;
 
-    public Visualize(MemoryMgmt memoryMgmt) {
+    public Visualize(Allocator allocator) {
+        this(allocator, Speed.REAL_TIME);
+    }
+
+    public Visualize(Allocator allocator, Speed speed) {
+        this.allocator = allocator;
+        this.speed = speed;
+        this.WORD = allocator.getWord();
+        this.strips = new ArrayList<>();
+        this.events = new ConcurrentLinkedQueue<>();
+        update();
         frame =  new Frame();
-        this.memoryMgmt = memoryMgmt;
-        this.WORD = memoryMgmt.getWord();
+        new Timer(TICK, e -> tick()).start();
     }
 
+    /*
+     * Publishing (allocator thread), never blocks
+     */
+
+    // Full redraw from an allocator snapshot, scanned later by the Swing thread
     public void update() {
-        frame.panel.repaint();
+        Event event = new Event(Event.SNAPSHOT, 0, 0, ' ');
+        event.snapshot = allocator.snapshot();
+        events.add(event);
+    }
+
+    // Block at @address spanning @length bytes now carries @flag
+    public void block(long address, int length, char flag) {
+        events.add(new Event(Event.BLOCK, address, length, flag));
+    }
+
+    // New segment (sbrk extension or large object) of @length bytes at @address
+    public void segmentMapped(long address, int length) {
+        events.add(new Event(Event.MAP, address, length, ' '));
+    }
+
+    public void segmentUnmapped(long address) {
+        events.add(new Event(Event.UNMAP, address, 0, ' '));
+    }
+
+    // Segment at @address now spans @length bytes (lazy commit), the block events after it fill the new cells
+    public void segmentGrown(long address, int length) {
+        events.add(new Event(Event.GROW, address, length, ' '));
+    }
+
+    public void setSpeed(Speed speed) {
+        SwingUtilities.invokeLater(() -> {
+            this.speed = speed;
+            anchorEvent = -1;
+            frame.updateScrollBar();
+        });
+    }
+
+    // Blocks the caller until every published event has been replayed (or the window is gone)
+    public void awaitReplay() {
+        while (!events.isEmpty() && frame.isDisplayable()) {
+            try {
+                Thread.sleep(TICK);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
     }
 
     public void closeFrame() {
         frame.dispose();
     }
 
+    /*
+     * Replay (Swing thread)
+     */
+
+    private void tick() {
+
+        long now = System.nanoTime();
+        boolean applied = false;
+
+        switch (speed) {
+            case FAST_FORWARD:
+                while (!events.isEmpty()) applied |= apply(events.poll());
+                break;
+            case PACED:
+                if (!events.isEmpty() && now - lastApplied >= pace * 1000000L) {
+                    applied = apply(events.poll());
+                    lastApplied = now;
+                }
+                break;
+            case REAL_TIME:
+                Event next = events.peek();
+                if (next == null) break;
+                if (anchorEvent < 0 || events.size() > MAX_BACKLOG) {
+                    anchorEvent = next.time;
+                    anchorWall = now;
+                }
+                // Every due event is applied, intermediate frames are dropped
+                while (next != null && (next.time - anchorEvent) / rate <= now - anchorWall) {
+                    applied |= apply(events.poll());
+                    next = events.peek();
+                }
+                // Jumps over idle gaps in the workload
+                if (next != null && !applied) {
+                    anchorEvent = next.time;
+                    anchorWall = now;
+                }
+                break;
+            case STEP:
+                break;
+        }
+
+        if (applied) frame.panel.repaint();
+        if (applied || speed == Speed.STEP) frame.setTitle(title());
+    }
+
+    private void step() {
+        if (apply(events.poll())) frame.panel.repaint();
+        frame.setTitle(title());
+    }
+
+    private boolean apply(Event event) {
+
+        if (event == null) return false;
+
+        switch (event.kind) {
+            case Event.SNAPSHOT:
+                layout = event.snapshot.getBlockLayout();
+                strips = capture(event.snapshot);
+                event.snapshot.close();
+                relayout();
+                return true;
+            case Event.MAP:
+                Strip strip = new Strip(event.address, event.length);
+                Arrays.fill(strip.states, 0, Math.min(WORD, event.length), META);
+                Arrays.fill(strip.states, Math.max(event.length-WORD, 0), event.length, META);
+                int index = 0;
+                while (index < strips.size() && strips.get(index).address < event.address) index++;
+                strips.add(index, strip);
+                relayout();
+                return true;
+            case Event.UNMAP:
+                strips.removeIf(s -> s.address == event.address);
+                relayout();
+                return true;
+            case Event.GROW:
+                for (Strip grown : strips) {
+                    if (grown.address == event.address) grown.states = Arrays.copyOf(grown.states, event.length);
+                }
+                relayout();
+                return true;
+            case Event.BLOCK:
+                /*
+                 * PLEN and LEN tags, then list pointers if free, then data
+                 * The footer is the next block's PLEN
+                 */
+                if (layout == HeapView.BlockLayout.OUT_OF_BAND) {
+                    // Metadata is out of band, the block is payload from end to end
+                    fill(event.address, event.address+event.length, event.flag == 'F' ? FREE : USED);
+                    return true;
+                }
+                int tags = event.flag == 'F' ? 4*WORD : 2*WORD;
+                if (layout == HeapView.BlockLayout.COMPACT_TAGS) {
+                    /*
+                     * Compact tags: the PLEN word belongs to the previous block (payload or footer)
+                     * and an allocated block has no footer, its data runs into the next block's PLEN word
+                     */
+                    fill(event.address+WORD, event.address+tags, META);
+                    if (event.flag == 'F') {
+                        fill(event.address+tags, event.address+event.length, FREE);
+                        fill(event.address+event.length, event.address+event.length+WORD, META);
+                    } else {
+                        fill(event.address+tags, event.address+event.length+WORD, USED);
+                    }
+                    return true;
+                }
+                fill(event.address, event.address+tags, META);
+                fill(event.address+tags, event.address+event.length, event.flag == 'F' ? FREE : USED);
+                fill(event.address+event.length, event.address+event.length+WORD, META);
+                return true;
+        }
+        return false;
+    }
+
+    private void fill(long from, long to, byte state) {
+        Strip strip = stripAt(from);
+        if (strip == null || to <= from) return;
+        int start = (int) (from - strip.address);
+        int end = (int) Math.min(to - strip.address, strip.states.length);
+        Arrays.fill(strip.states, start, end, state);
+        dirtyFrom = Math.min(dirtyFrom, strip.displayStart + start);
+        dirtyTo = Math.max(dirtyTo, strip.displayStart + end);
+    }
+
+    private void relayout() {
+        int display = 0;
+        for (Strip strip : strips) {
+            strip.displayStart = display;
+            display += strip.states.length;
+        }
+        cells = display;
+        fullRedraw = true;
+        frame.updateScrollBar();
+    }
+
+    private String title() {
+        return "Virtual Memory - " + cells + " bytes, " + zoom + " byte(s) per pixel, " + speed + ", " + events.size() + " queued";
+    }
+
+    private Strip stripAt(long address) {
+        int low = 0;
+        int high = strips.size()-1;
+        while (low <= high) {
+            int mid = (low + high) / 2;
+            Strip strip = strips.get(mid);
+            if (address < strip.address) high = mid-1;
+            else if (address >= strip.address + strip.states.length) low = mid+1;
+            else return strip;
+        }
+        return null;
+    }
+
+    // Cell states of every segment in @snapshot
+    private ArrayList<Strip> capture(HeapView snapshot) {
+
+        ArrayList<Strip> captured = new ArrayList<>();
+
+        // Only the committed cells, the rest of a lazily committed heap is added as it commits
+        captured.add(capture(snapshot, 0, (int) snapshot.getCommittedSize()));
+
+        long address = snapshot.getHeapSize();
+        for (int length : snapshot.getExtensionLengths()) {
+            captured.add(capture(snapshot, address, length));
+            address += length;
+        }
+
+        for (Map.Entry<Long, Integer> entry : snapshot.getLargeObjects().entrySet()) {
+            captured.add(capture(snapshot, entry.getKey(), entry.getValue()));
+        }
+
+        return captured;
+    }
+
+    private Strip capture(HeapView snapshot, long address, int length) {
+
+        Strip strip = new Strip(address, length);
+        byte[] states = strip.states;
+
+        char flag = 'U';
+        int overlook = 0;
+
+        for (int i = 0; i < length; i++) {
+            if (i < overlook) {
+                states[i] = META;
+                continue;
+            }
+            MemoryMgmt.Byte cell = snapshot.getByte(address+i);
+            if (cell instanceof MemoryMgmt.FlaggedByte) {
+                flag = ((MemoryMgmt.FlaggedByte) cell).flag;
+                // Out of band tags only exist in the view, they take no space
+                if (layout == HeapView.BlockLayout.OUT_OF_BAND) {
+                    states[i] = flag == 'F' ? FREE : USED;
+                    continue;
+                }
+                overlook = i + WORD;
+                states[i] = META;
+            } else if (cell instanceof MemoryMgmt.PointerByte) {
+                overlook = i + WORD;
+                states[i] = META;
+            } else {
+                states[i] = flag == 'F' ? FREE : USED;
+            }
+        }
+
+        return strip;
+    }
+
+    // State of display cell @cell
+    private byte stateAt(int cell) {
+        int low = 0;
+        int high = strips.size()-1;
+        while (low < high) {
+            int mid = (low + high + 1) / 2;
+            if (strips.get(mid).displayStart <= cell) low = mid;
+            else high = mid-1;
+        }
+        Strip strip = strips.get(low);
+        int offset = cell - strip.displayStart;
+        if (offset < 0 || offset >= strip.states.length) return EMPTY;
+        return strip.states[offset];
+    }
+
+    // Majority state of the (sampled) cells behind one pixel
+    private byte pixelState(int cell) {
+        if (cell >= cells) return EMPTY;
+        if (zoom == 1) return stateAt(cell);
+        int[] votes = new int[COLORS.length];
+        int stride = Math.max(1, zoom / MAX_SAMPLES);
+        int end = Math.min(cell + zoom, cells);
+        for (int c = cell; c < end; c += stride) votes[stateAt(c)]++;
+        byte best = EMPTY;
+        for (byte s = 1; s < votes.length; s++) {
+            if (votes[s] > votes[best]) best = s;
+        }
+        return best;
+    }
+
+    private static class Event {
+        static final int SNAPSHOT = 0;
+        static final int BLOCK = 1;
+        static final int MAP = 2;
+        static final int UNMAP = 3;
+        static final int GROW = 4;
+
+        int kind;
+        long address;
+        int length;
+        char flag;
+        long time;
+        HeapView snapshot;
+
+        public Event(int kind, long address, int length, char flag) {
+            this.kind = kind;
+            this.address = address;
+            this.length = length;
+            this.flag = flag;
+            this.time = System.nanoTime();
+        }
+    }
+
+    private static class Strip {
+        long address;                   // Address of the first cell
+        int displayStart;               // Display cell of the first cell
+        byte[] states;
+
+        public Strip(long address, int length) {
+            this.address = address;
+            this.states = new byte[length];
+        }
+    }
+
     private class Frame extends JFrame {
-        int FRAME_WIDTH  = 1026;
+        int FRAME_WIDTH  = 1042;
         int FRAME_HEIGHT = 273;
 
         Panel panel;
+        JScrollBar scrollBar;
 
         public Frame(){
 
             setSize(FRAME_WIDTH, FRAME_HEIGHT);				//setting the frame to the constant values declared as properties
             setTitle("Virtual Memory");						    // setting a title to the frame
             setLocationRelativeTo(null);					//setting frame location to the middle of the screen
-            
+
             panel = new Panel();
+            scrollBar = new JScrollBar(JScrollBar.VERTICAL);
+            scrollBar.addAdjustmentListener(e -> panel.scrollTo(e.getValue()));
 
-            add(panel);										// adding a panel
+            setLayout(new BorderLayout());
+            add(panel, BorderLayout.CENTER);				// adding a panel
+            add(scrollBar, BorderLayout.EAST);
+            updateScrollBar();
             setVisible(true);								// making the frame visible
-            setResizable(false);					        // disabling the frame to be resizable
-            setDefaultCloseOperation(EXIT_ON_CLOSE);		
+            setDefaultCloseOperation(EXIT_ON_CLOSE);
+        }
+
+        void updateScrollBar() {
+            int rows = panel.totalRows();
+            int visible = panel.visibleRows();
+            scrollBar.setValues(Math.min(firstRow, Math.max(rows-visible, 0)), visible, 0, Math.max(rows, visible));
+            setTitle(title());
         }
     }
 
@@ -53,67 +465,124 @@ public class Visualize {
 
         int PANEL_WIDTH  = 1024;
         int PANEL_HEIGHT = 270;
-        
-        Graphics graphics;
 
-        Image image;
+        BufferedImage buffer;           // Back buffer, reused across repaints
 
         public Panel() {
-            setLayout(null);
-            setSize(PANEL_WIDTH, PANEL_HEIGHT);									// setting the size of the panel
-            setFocusable(true);													// setting focusable to true to receive keyboard input 
+            setPreferredSize(new Dimension(PANEL_WIDTH, PANEL_HEIGHT));     // setting the size of the panel
+            setFocusable(true);													// setting focusable to true to receive keyboard input
             setVisible(true);
+
+            addKeyListener(new KeyAdapter() {
+                public void keyPressed(KeyEvent e) {
+                    switch (e.getKeyChar()) {
+                        case '+': setZoom(Math.max(1, zoom / 2)); break;
+                        case '-': setZoom(zoom * 2); break;
+                        case 'r': setSpeed(Speed.REAL_TIME); break;
+                        case 'p': setSpeed(Speed.PACED); break;
+                        case 's': setSpeed(Speed.STEP); break;
+                        case 'f': setSpeed(Speed.FAST_FORWARD); break;
+                        case ' ': step(); break;
+                        case '[': rate = rate / 2; pace = pace * 2; break;
+                        case ']': rate = rate * 2; pace = Math.max(pace / 2, TICK); break;
+                    }
+                }
+            });
+
+            addComponentListener(new ComponentAdapter() {
+                public void componentResized(ComponentEvent e) {
+                    frame.updateScrollBar();
+                }
+            });
+
+            addMouseWheelListener(e -> {
+                if (e.isControlDown()) {
+                    setZoom(e.getWheelRotation() > 0 ? zoom * 2 : Math.max(1, zoom / 2));
+                } else {
+                    frame.scrollBar.setValue(firstRow + e.getWheelRotation());
+                }
+            });
         }
 
-        public void paint(Graphics g) {
-            image = createImage(PANEL_WIDTH, PANEL_HEIGHT);
-            graphics = image.getGraphics();
-            draw(graphics);																	
-            g.drawImage(image,1,1,this);
+        int bytesPerRow() {
+            return Math.max(getWidth(), 1) * zoom;
         }
-    
-        public void draw(java.awt.Graphics g) {
 
-            MemoryMgmt.Byte[] heap = memoryMgmt.getHeap();
+        int totalRows() {
+            return (cells + bytesPerRow() - 1) / bytesPerRow();
+        }
 
-            int y = 0;
-            int x = 0;
+        int visibleRows() {
+            return Math.max(getHeight() / ROW_HEIGHT, 1);
+        }
 
-            char flag = '?';
+        void scrollTo(int row) {
+            if (row == firstRow) return;
+            firstRow = row;
+            fullRedraw = true;
+            repaint();
+        }
 
-            int overlook = -1;
+        // Keeps the first visible cell in view
+        void setZoom(int newZoom) {
+            int firstCell = firstRow * bytesPerRow();
+            zoom = newZoom;
+            firstRow = firstCell / bytesPerRow();
+            fullRedraw = true;
+            frame.updateScrollBar();
+            repaint();
+        }
 
-            for (int i = 0; i < 8192; i++) {
-                if (x == 1024) {
-                    y += 30;
-                    x = 0;
-                }
-                if (!(i < overlook)) {
-                    if (heap[i] instanceof MemoryMgmt.FlaggedByte) {
+        public void paintComponent(Graphics g) {
 
-                        g.setColor(new Color(0, 0, 255));
+            if (buffer == null || buffer.getWidth() != getWidth() || buffer.getHeight() != getHeight()) {
+                buffer = new BufferedImage(Math.max(getWidth(), 1), Math.max(getHeight(), 1), BufferedImage.TYPE_INT_RGB);
+                fullRedraw = true;
+            }
 
-                        overlook = i + WORD;
+            int rowBytes = bytesPerRow();
+            int lastRow = firstRow + visibleRows();
+            if (fullRedraw) {
+                draw(firstRow, lastRow);
+            } else if (dirtyTo >= 0) {
+                draw(Math.max(dirtyFrom / rowBytes, firstRow), Math.min((dirtyTo-1) / rowBytes, lastRow-1) + 1);
+            }
+            fullRedraw = false;
+            dirtyFrom = Integer.MAX_VALUE;
+            dirtyTo = -1;
 
-                        flag = ((MemoryMgmt.FlaggedByte) heap[i]).flag;
-                
-                    } else if (heap[i] instanceof MemoryMgmt.PointerByte) {
+            g.drawImage(buffer, 0, 0, this);
+        }
 
-                        g.setColor(new Color(0, 0, 255));
+        // Draws rows [@rowFrom, @rowTo) into the back buffer, one span per run of equal state
+        void draw(int rowFrom, int rowTo) {
 
-                        overlook = i + WORD;
+            Graphics g = buffer.getGraphics();
+            int width = buffer.getWidth();
 
-                    } else {
-                        if (flag == 'F') {
-                            g.setColor(new Color(0, 255, 0));
-                        } else {
-                            g.setColor(new Color(255, 0, 0));
-                        }
+            for (int row = rowFrom; row < rowTo; row++) {
+
+                int y = (row - firstRow) * ROW_HEIGHT;
+                int cell = row * width * zoom;
+
+                g.setColor(getBackground());
+                g.fillRect(0, y + ROW_HEIGHT-1, width, 1);
+
+                int runStart = 0;
+                byte runState = pixelState(cell);
+
+                for (int x = 1; x <= width; x++) {
+                    byte state = x < width ? pixelState(cell + x*zoom) : (byte) -1;
+                    if (state != runState) {
+                        g.setColor(runState == EMPTY ? getBackground() : COLORS[runState]);
+                        g.fillRect(runStart, y, x - runStart, ROW_HEIGHT-1);
+                        runStart = x;
+                        runState = state;
                     }
                 }
-                g.fillRect(x, y, 1, 29);
-                x++;
             }
+
+            g.dispose();
         }
     }
 